@@ -0,0 +1,243 @@
+/*
+ * Copyright 2013 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.pathfinding.componentSystem;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.terasology.math.TeraMath;
+import org.terasology.math.Vector3i;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queue of pending chunk updates, holding at most one entry per chunk.
+ * <p/>
+ * Block changes in a chunk that is already queued are merged into its entry, so ten changes in one chunk result in
+ * one update. Changes to the same column are merged as well, since updates are done per column. Once too many columns
+ * changed, or the chunk was (re)loaded, the entry is turned into a full chunk update.
+ * <p/>
+ * The queue is unbounded, no update is ever dropped. Entries near recently focused chunks (the chunks minions search
+ * paths in) are taken first, others in the order they were queued.
+ *
+ * @author synopia
+ */
+public class ChunkUpdateQueue {
+    /**
+     * Number of changed columns, after which a full update of the chunk is cheaper than updating each column.
+     */
+    public static final int MAX_COLUMNS = 32;
+    public static final int MAX_FOCUS = 16;
+
+    private final Map<Vector3i, ChunkUpdate> pending = Maps.newLinkedHashMap();
+    private final LinkedList<Vector3i> focus = Lists.newLinkedList();
+    private long offeredCount;
+    private long coalescedCount;
+    private int maxDepth;
+
+    /**
+     * Queues an update of the column containing the given block.
+     */
+    public synchronized void offerBlock(Vector3i blockPos) {
+        ChunkUpdate update = getOrCreate(TeraMath.calcChunkPos(blockPos));
+        if (update.full) {
+            coalescedCount++;
+        } else {
+            Vector3i column = new Vector3i(blockPos.x, 0, blockPos.z);
+            if (update.columns.put(column, new Vector3i(blockPos)) != null) {
+                coalescedCount++;
+            }
+            if (update.columns.size() > MAX_COLUMNS) {
+                coalescedCount += update.columns.size() - 1;
+                update.setFull();
+            }
+        }
+    }
+
+    /**
+     * Queues a full update of the given chunk. Pending column updates of the chunk are replaced.
+     */
+    public synchronized void offerChunk(Vector3i chunkPos) {
+        ChunkUpdate update = getOrCreate(new Vector3i(chunkPos));
+        if (update.full) {
+            coalescedCount++;
+        } else {
+            coalescedCount += update.columns.size();
+            update.setFull();
+        }
+    }
+
+    /**
+     * Marks the given chunk as interesting, queued updates near it are taken first.
+     */
+    public synchronized void focus(Vector3i chunkPos) {
+        focus.remove(chunkPos);
+        focus.addFirst(new Vector3i(chunkPos));
+        if (focus.size() > MAX_FOCUS) {
+            focus.removeLast();
+        }
+    }
+
+    /**
+     * Removes and returns the entry with the highest priority, waiting up to the given time if the queue is empty.
+     *
+     * @return the next update or null, if the time elapsed
+     */
+    public synchronized ChunkUpdate poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long remaining = unit.toNanos(timeout);
+        long end = System.nanoTime() + remaining;
+        while (pending.isEmpty()) {
+            if (remaining <= 0) {
+                return null;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            remaining = end - System.nanoTime();
+        }
+        ChunkUpdate next = null;
+        int nextDistance = Integer.MAX_VALUE;
+        Iterator<ChunkUpdate> it = pending.values().iterator();
+        while (it.hasNext() && nextDistance > 0) {
+            ChunkUpdate update = it.next();
+            int distance = focusDistance(update.chunkPos);
+            if (next == null || distance < nextDistance) {
+                next = update;
+                nextDistance = distance;
+            }
+        }
+        pending.remove(next.chunkPos);
+        return next;
+    }
+
+    /**
+     * Removes and returns up to max pending full chunk updates, highest priority first. Does not wait.
+     */
+    public synchronized List<ChunkUpdate> pollFullUpdates(int max) {
+        List<ChunkUpdate> result = Lists.newArrayList();
+        final Map<ChunkUpdate, Integer> distances = Maps.newHashMap();
+        for (ChunkUpdate update : pending.values()) {
+            if (update.full) {
+                result.add(update);
+                distances.put(update, focusDistance(update.chunkPos));
+            }
+        }
+        Collections.sort(result, new Comparator<ChunkUpdate>() {
+            @Override
+            public int compare(ChunkUpdate a, ChunkUpdate b) {
+                return Integer.compare(distances.get(a), distances.get(b));
+            }
+        });
+        if (result.size() > max) {
+            result = Lists.newArrayList(result.subList(0, max));
+        }
+        for (ChunkUpdate update : result) {
+            pending.remove(update.chunkPos);
+        }
+        return result;
+    }
+
+    public synchronized boolean isEmpty() {
+        return pending.isEmpty();
+    }
+
+    /**
+     * @return number of chunks waiting for an update
+     */
+    public synchronized int getDepth() {
+        return pending.size();
+    }
+
+    public synchronized int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * @return number of block changes and chunk loads queued so far
+     */
+    public synchronized long getOfferedCount() {
+        return offeredCount;
+    }
+
+    /**
+     * @return number of queued changes, that were merged into another pending update
+     */
+    public synchronized long getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    private ChunkUpdate getOrCreate(Vector3i chunkPos) {
+        offeredCount++;
+        ChunkUpdate update = pending.get(chunkPos);
+        if (update == null) {
+            update = new ChunkUpdate(chunkPos);
+            pending.put(chunkPos, update);
+            maxDepth = Math.max(maxDepth, pending.size());
+            notifyAll();
+        }
+        return update;
+    }
+
+    private int focusDistance(Vector3i chunkPos) {
+        int distance = Integer.MAX_VALUE;
+        for (Vector3i pos : focus) {
+            distance = Math.min(distance, pos.gridDistance(chunkPos));
+        }
+        return distance;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "depth=" + pending.size() + ", maxDepth=" + maxDepth + ", offered=" + offeredCount + ", coalesced=" + coalescedCount;
+    }
+
+    /**
+     * Pending update of one chunk. Either a full update or an update of some columns.
+     */
+    public static final class ChunkUpdate {
+        private final Vector3i chunkPos;
+        private final Map<Vector3i, Vector3i> columns = Maps.newLinkedHashMap();
+        private boolean full;
+
+        private ChunkUpdate(Vector3i chunkPos) {
+            this.chunkPos = chunkPos;
+        }
+
+        private void setFull() {
+            full = true;
+            columns.clear();
+        }
+
+        public Vector3i getChunkPos() {
+            return chunkPos;
+        }
+
+        public boolean isFullUpdate() {
+            return full;
+        }
+
+        /**
+         * @return one changed block for each changed column, empty for full updates
+         */
+        public Collection<Vector3i> getBlockPositions() {
+            return columns.values();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2013 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.pathfinding.componentSystem;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the latest latency samples of some kind of request and computes percentiles over them.
+ * <p/>
+ * Samples are stored in a ring buffer, so percentiles reflect the most recent requests only.
+ *
+ * @author synopia
+ */
+public class LatencyRecorder {
+    public static final int DEFAULT_SAMPLES = 1024;
+
+    private final long[] samples;
+    private int next;
+    private int size;
+    private long count;
+
+    public LatencyRecorder() {
+        this(DEFAULT_SAMPLES);
+    }
+
+    public LatencyRecorder(int maxSamples) {
+        samples = new long[maxSamples];
+    }
+
+    public synchronized void record(long nanos) {
+        samples[next] = nanos;
+        next = (next + 1) % samples.length;
+        size = Math.min(size + 1, samples.length);
+        count++;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the latency in ms, below which the given percentage of the recorded samples lie. 0, if there are no
+     *         samples yet
+     */
+    public synchronized float getPercentile(double percentile) {
+        if (size == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(samples, size);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100 * size) - 1;
+        return sorted[Math.max(0, Math.min(size - 1, index))] / 1000 / 1000f;
+    }
+
+    /**
+     * @return number of samples recorded so far, including those already dropped from the buffer
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount() + ", p50=" + getPercentile(50) + " ms, p90=" + getPercentile(90) + " ms, p99=" + getPercentile(99) + " ms";
+    }
+}
@@ -24,6 +24,7 @@ import org.terasology.entitySystem.event.ReceiveEvent;
 import org.terasology.entitySystem.systems.ComponentSystem;
 import org.terasology.entitySystem.systems.In;
 import org.terasology.entitySystem.systems.RegisterSystem;
+import org.terasology.entitySystem.systems.UpdateSubscriberSystem;
 import org.terasology.logic.location.LocationComponent;
 import org.terasology.math.TeraMath;
 import org.terasology.math.Vector3i;
@@ -39,37 +40,72 @@ import org.terasology.world.chunks.event.OnChunkLoaded;
 
 import javax.vecmath.Vector3f;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This systems helps finding a paths through the game world.
  * <p/>
  * Since paths finding takes some time, it completely runs in a background thread. So, a requested paths is not
- * available in the moment it is requested. Instead you need to listen for a PathReadyEvent.
+ * available in the moment it is requested. Instead you need to listen for a PathReadyEvent. Since the entity system is
+ * not thread safe, the workers only queue their results, the events are sent from the main thread in update().
  *
  * @author synopia
  */
 @RegisterSystem
-public class PathfinderSystem implements ComponentSystem, WorldChangeListener {
+public class PathfinderSystem implements ComponentSystem, UpdateSubscriberSystem, WorldChangeListener {
     private static final Logger logger = LoggerFactory.getLogger(PathfinderSystem.class);
+    /**
+     * Number of threads searching paths, may be set using the system property pathfinder.workers.
+     */
+    public static final int WORKERS = Integer.getInteger("pathfinder.workers", Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+    /**
+     * Maximum number of chunks, whose height maps are built in one parallel batch.
+     */
+    public static final int MAX_CHUNK_BATCH = 64;
+    /**
+     * Time in microseconds a single search runs, before it is put back into the queue behind the other requests of
+     * its priority, may be set using the system property pathfinder.stepBudget.
+     */
+    public static final long STEP_BUDGET = Long.getLong("pathfinder.stepBudget", 2000);
+
+    /**
+     * Priority of a path request. Requests of higher priority (for example for minions visible to a player) are
+     * processed first.
+     */
+    public enum Priority {
+        HIGH,
+        NORMAL,
+        LOW
+    }
 
     @In
     private WorldProvider world;
 
-    private BlockingQueue<UpdateChunkTask> updateChunkQueue = new ArrayBlockingQueue<>(100);
-    private BlockingQueue<FindPathTask> findPathTasks = new ArrayBlockingQueue<>(1000);
+    private ChunkUpdateQueue updateChunkQueue = new ChunkUpdateQueue();
+    private BlockingQueue<FindPathTask> findPathTasks = new PriorityBlockingQueue<>();
+    private Queue<FindPathTask> finishedTasks = new ConcurrentLinkedQueue<>();
+    private Map<Priority, LatencyRecorder> latencies = new EnumMap<>(Priority.class);
+    private AtomicLong expiredRequests = new AtomicLong();
+    private AtomicLong nextSequence = new AtomicLong();
     private Set<Vector3i> invalidChunks = Collections.synchronizedSet(new HashSet<Vector3i>());
 
-    private ExecutorService inputThreads;
+    private ExecutorService updateThread;
+    private ExecutorService workerThreads;
+    private ForkJoinPool chunkThreads;
 
     private Map<Vector3i, HeightMap> maps = new HashMap<>();
     private Pathfinder pathfinder;
@@ -77,14 +113,47 @@ public class PathfinderSystem implements ComponentSystem, WorldChangeListener {
 
     public PathfinderSystem() {
         CoreRegistry.put(PathfinderSystem.class, this);
+        for (Priority priority : Priority.values()) {
+            latencies.put(priority, new LatencyRecorder());
+        }
     }
 
     public int requestPath(EntityRef requestor, Vector3i target, List<Vector3i> start) {
-        FindPathTask task = new FindPathTask(start, target, requestor);
+        return requestPath(requestor, target, start, Priority.NORMAL, 0);
+    }
+
+    /**
+     * @param priority requests of higher priority are processed first, requests of the same priority in the order
+     *                 they were made
+     * @param timeout  time in ms, after which the request is dropped, if no worker started it yet. A dropped request
+     *                 gets a PathReadyEvent without any paths. 0 means no timeout
+     */
+    public int requestPath(EntityRef requestor, Vector3i target, List<Vector3i> start, Priority priority, long timeout) {
+        FindPathTask task = new FindPathTask(start, target, requestor, priority, timeout);
+        updateChunkQueue.focus(TeraMath.calcChunkPos(target));
+        for (Vector3i pos : start) {
+            if (pos != null) {
+                updateChunkQueue.focus(TeraMath.calcChunkPos(pos));
+            }
+        }
         findPathTasks.add(task);
         return task.pathId;
     }
 
+    /**
+     * @return the latencies of recently finished requests of the given priority, from request to PathReadyEvent
+     */
+    public LatencyRecorder getLatency(Priority priority) {
+        return latencies.get(priority);
+    }
+
+    /**
+     * @return number of requests dropped, because their timeout elapsed before a worker started them
+     */
+    public long getExpiredRequests() {
+        return expiredRequests.get();
+    }
+
     public HeightMap getHeightMap(Vector3i chunkPos) {
         return maps.get(chunkPos);
     }
@@ -99,25 +168,18 @@ public class PathfinderSystem implements ComponentSystem, WorldChangeListener {
     }
 
     public WalkableBlock getBlock(Vector3f pos) {
-        Vector3i blockPos = new Vector3i(pos.x + 0.25f, pos.y, pos.z + 0.25f);
-        WalkableBlock block = pathfinder.getBlock(blockPos);
-        if (block == null) {
-            blockPos.y += 2;
-            while (blockPos.y >= (int) pos.y - 4 && (block = pathfinder.getBlock(blockPos)) == null) {
-                blockPos.y--;
-            }
-        }
-        return block;
+        return pathfinder.findBlockNear(new Vector3i(pos.x + 0.25f, pos.y, pos.z + 0.25f));
     }
 
     @Override
     public void initialise() {
         world.registerListener(this);
         pathfinder = new Pathfinder(world);
-        logger.info("Pathfinder started");
+        pathfinder.setPartialPaths(Boolean.getBoolean("pathfinder.partialPaths"));
 
-        inputThreads = Executors.newFixedThreadPool(1);
-        inputThreads.execute(new Runnable() {
+        chunkThreads = new ForkJoinPool(WORKERS);
+        updateThread = Executors.newFixedThreadPool(1);
+        updateThread.execute(new Runnable() {
             @Override
             public void run() {
 
@@ -125,122 +187,266 @@ public class PathfinderSystem implements ComponentSystem, WorldChangeListener {
                 Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
                 while (running) {
                     try {
-                        UpdateChunkTask task = updateChunkQueue.poll(1, TimeUnit.SECONDS);
-                        if (task != null) {
-                            for (FindPathTask t : findPathTasks) {
-                                t.cancel();
+                        ChunkUpdateQueue.ChunkUpdate update = updateChunkQueue.poll(1, TimeUnit.SECONDS);
+                        if (update != null) {
+                            List<ChunkUpdateQueue.ChunkUpdate> updates = Lists.newArrayList(update);
+                            if (update.isFullUpdate()) {
+                                updates.addAll(updateChunkQueue.pollFullUpdates(MAX_CHUNK_BATCH - 1));
+                            }
+                            if (updates.size() > 1) {
+                                updateChunks(updates);
+                            } else {
+                                updateChunk(update);
+                            }
+                            for (ChunkUpdateQueue.ChunkUpdate done : updates) {
+                                for (FindPathTask task : findPathTasks) {
+                                    task.invalidate(done.getChunkPos());
+                                }
+                            }
+                            if (updateChunkQueue.isEmpty()) {
+                                pathfinder.updateHierarchy();
+                                logger.debug("Chunk update queue: " + updateChunkQueue + ", graph version: " + pathfinder.getVersion());
                             }
-                            findPathTasks.clear();
-
-                            task.process();
-                        } else {
-                            findPaths();
                         }
                     } catch (InterruptedException e) {
-                        logger.error("Thread interrupted", e);
+                        running = false;
                     } catch (Exception e) {
                         logger.error("Error in thread", e);
                     }
                 }
-                logger.debug("Thread shutdown safely");
+                logger.debug("Update thread shutdown safely");
             }
         });
+
+        workerThreads = Executors.newFixedThreadPool(WORKERS);
+        for (int i = 0; i < WORKERS; i++) {
+            workerThreads.execute(new Runnable() {
+                @Override
+                public void run() {
+                    boolean running = true;
+                    Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
+                    while (running) {
+                        try {
+                            FindPathTask task = findPathTasks.poll(1, TimeUnit.SECONDS);
+                            if (task != null) {
+                                findPaths(task);
+                            }
+                        } catch (InterruptedException e) {
+                            running = false;
+                        } catch (Exception e) {
+                            logger.error("Error in thread", e);
+                        }
+                    }
+                    logger.debug("Worker thread shutdown safely");
+                }
+            });
+        }
+        logger.info("Pathfinder started with " + WORKERS + " workers");
+    }
+
+    /**
+     * Updates a chunk, or only the changed columns of it. If a column can't be updated in place, the whole chunk is
+     * rebuilt, which covers the remaining columns, too.
+     */
+    private void updateChunk(ChunkUpdateQueue.ChunkUpdate update) {
+        Vector3i chunkPos = update.getChunkPos();
+        HeightMap map = maps.remove(chunkPos);
+        if (update.isFullUpdate() || map == null) {
+            map = pathfinder.update(chunkPos);
+        } else {
+            for (Vector3i blockPos : update.getBlockPositions()) {
+                HeightMap updated = pathfinder.updateBlock(blockPos);
+                if (updated != map) {
+                    map = updated;
+                    break;
+                }
+            }
+        }
+        maps.put(chunkPos, map);
     }
 
-    private void findPaths() {
+    /**
+     * Rebuilds several chunks at once. The height maps are built in parallel.
+     */
+    private void updateChunks(List<ChunkUpdateQueue.ChunkUpdate> updates) {
+        long time = System.nanoTime();
+        List<Vector3i> chunkPositions = Lists.newArrayList();
+        for (ChunkUpdateQueue.ChunkUpdate update : updates) {
+            chunkPositions.add(update.getChunkPos());
+            maps.remove(update.getChunkPos());
+        }
+        List<HeightMap> heightMaps = pathfinder.update(chunkPositions, chunkThreads);
+        for (int i = 0; i < chunkPositions.size(); i++) {
+            maps.put(chunkPositions.get(i), heightMaps.get(i));
+        }
+        float ms = (System.nanoTime() - time) / 1000 / 1000f;
+        logger.info("Updating " + chunkPositions.size() + " chunks took " + ms + " ms");
+    }
+
+    /**
+     * Processes the given task and further queued tasks, highest priority first, until the queue is empty. Long
+     * searches are preempted after STEP_BUDGET and queued again, so requests of higher priority coming in meanwhile
+     * are processed first. Several workers may do so at the same time.
+     */
+    private void findPaths(FindPathTask first) {
         long time = System.nanoTime();
         int count = 0;
-        while (!findPathTasks.isEmpty()) {
-            FindPathTask pathTask = findPathTasks.poll();
-            if (pathTask.processed) {
-                continue;
+        FindPathTask pathTask = first;
+        while (pathTask != null) {
+            if (!pathTask.processed) {
+                if (pathTask.process(STEP_BUDGET * 1000)) {
+                    count++;
+                } else {
+                    pathTask.sequence = nextSequence.incrementAndGet();
+                    findPathTasks.add(pathTask);
+                }
             }
-            pathTask.process();
-            count++;
+            pathTask = findPathTasks.poll();
         }
         float ms = (System.nanoTime() - time) / 1000 / 1000f;
         if (count > 0) {
-            logger.info("Searching " + count + " paths took " + ms + " ms");
+            logger.info(Thread.currentThread().getName() + ": searching " + count + " paths took " + ms + " ms, " + findPathTasks.size() + " pending");
+            logger.debug("Path cache: " + pathfinder.getCache());
+            for (Priority priority : Priority.values()) {
+                logger.debug("Latency " + priority + ": " + latencies.get(priority));
+            }
+        }
+    }
+
+    /**
+     * Sends the PathReadyEvents of all tasks finished by the workers since the last call.
+     */
+    @Override
+    public void update(float delta) {
+        FindPathTask task = finishedTasks.poll();
+        while (task != null) {
+            task.entity.send(task.result);
+            task = finishedTasks.poll();
         }
     }
 
     @Override
     public void shutdown() {
-        inputThreads.shutdown();
+        updateThread.shutdownNow();
+        workerThreads.shutdownNow();
+        chunkThreads.shutdownNow();
     }
 
     @Override
     public void onBlockChanged(Vector3i pos, Block newBlock, Block originalBlock) {
         Vector3i chunkPos = TeraMath.calcChunkPos(pos);
         invalidChunks.add(chunkPos);
-        updateChunkQueue.offer(new UpdateChunkTask(chunkPos));
+        updateChunkQueue.offerBlock(pos);
     }
 
     @ReceiveEvent(components = WorldComponent.class)
     public void chunkReady(OnChunkLoaded event, EntityRef worldEntity) {
         invalidChunks.add(event.getChunkPos());
-        updateChunkQueue.offer(new UpdateChunkTask(event.getChunkPos()));
-    }
-
-    /**
-     * Task to update a chunk
-     */
-    private final class UpdateChunkTask {
-        public Vector3i chunkPos;
-
-        private UpdateChunkTask(Vector3i chunkPos) {
-            this.chunkPos = chunkPos;
-        }
-
-        public void process() {
-            maps.remove(chunkPos);
-            HeightMap map = pathfinder.update(chunkPos);
-            maps.put(chunkPos, map);
-            pathfinder.clearCache();
-        }
+        updateChunkQueue.offerChunk(event.getChunkPos());
     }
 
     /**
      * Task to find a paths.
      */
-    private final class FindPathTask {
+    private final class FindPathTask implements Comparable<FindPathTask> {
         public EntityRef entity;
+        public Priority priority;
+        public long requestTime;
+        public long deadline;
         public List<Path> paths;
         public List<Vector3i> start;
         public Vector3i target;
         public boolean processed;
+        public PathReadyEvent result;
+        public volatile boolean invalidated;
         public int pathId;
+        public long sequence;
+        private Pathfinder.Search search;
+        private WalkableBlock targetBlock;
+        private List<WalkableBlock> startBlocks;
 
-        private FindPathTask(List<Vector3i> start, Vector3i target, EntityRef entity) {
+        private FindPathTask(List<Vector3i> start, Vector3i target, EntityRef entity, Priority priority, long timeout) {
             this.start = start;
             this.target = target;
             this.entity = entity;
+            this.priority = priority;
+            this.requestTime = System.nanoTime();
+            this.deadline = timeout > 0 ? requestTime + timeout * 1000 * 1000 : Long.MAX_VALUE;
             this.pathId = nextId;
+            this.sequence = nextSequence.incrementAndGet();
             nextId++;
         }
 
         /**
-         * Does the actual paths finding. When its done, the outputQueue is filled with the result.
-         * This method should be called from a thread only, it may take long.
+         * Marks this task as invalidated, if its start or target lies in the given chunk. The blocks of an invalidated
+         * task are searched again, when it is processed.
          */
-        public void process() {
-            List<WalkableBlock> startBlocks = Lists.newArrayList();
+        public void invalidate(Vector3i chunkPos) {
+            if (chunkPos.equals(TeraMath.calcChunkPos(target))) {
+                invalidated = true;
+                return;
+            }
             for (Vector3i pos : start) {
-                if (pos != null) {
-                    startBlocks.add(pathfinder.getBlock(pos));
+                if (pos != null && chunkPos.equals(TeraMath.calcChunkPos(pos))) {
+                    invalidated = true;
+                    return;
                 }
             }
-            WalkableBlock targetBlock = pathfinder.getBlock(this.target);
-            paths = null;
-            if (targetBlock != null && startBlocks.size() > 0) {
-                paths = pathfinder.findPath(targetBlock, startBlocks);
+        }
+
+        /**
+         * Does the actual paths finding. When its done, the task is queued, so update() sends a PathReadyEvent to the
+         * entity. Searches for a single start are resumable, they run for the given time per call only.
+         * This method should be called from a thread only, it may take long.
+         *
+         * @return true, if the task is done, false if it needs to be processed again
+         */
+        public boolean process(long maxNanos) {
+            if (search == null) {
+                if (System.nanoTime() > deadline) {
+                    processed = true;
+                    expiredRequests.incrementAndGet();
+                    result = new PathReadyEvent(pathId, null, null, null);
+                    finishedTasks.add(this);
+                    return true;
+                }
+                startBlocks = Lists.newArrayList();
+                for (Vector3i pos : start) {
+                    if (pos != null) {
+                        startBlocks.add(resolve(pos));
+                    }
+                }
+                targetBlock = resolve(this.target);
+                paths = null;
+                if (targetBlock != null && startBlocks.size() == 1 && startBlocks.get(0) != null && !pathfinder.isBidirectional()) {
+                    search = pathfinder.startSearch(targetBlock, startBlocks.get(0));
+                } else if (targetBlock != null && startBlocks.size() > 0) {
+                    paths = pathfinder.findPath(targetBlock, startBlocks);
+                }
+            }
+            if (search != null) {
+                if (!search.step(Integer.MAX_VALUE, maxNanos)) {
+                    return false;
+                }
+                paths = Lists.<Path>newArrayList(search.getPath());
             }
             processed = true;
-            entity.send(new PathReadyEvent(pathId, paths, targetBlock, startBlocks));
+            result = new PathReadyEvent(pathId, paths, targetBlock, startBlocks);
+            finishedTasks.add(this);
+            latencies.get(priority).record(System.nanoTime() - requestTime);
+            return true;
+        }
+
+        @Override
+        public int compareTo(FindPathTask other) {
+            if (priority != other.priority) {
+                return priority.compareTo(other.priority);
+            }
+            return Long.compare(sequence, other.sequence);
         }
 
-        public void cancel() {
-            entity.send(new PathReadyEvent(pathId, null, null, null));
+        private WalkableBlock resolve(Vector3i pos) {
+            return invalidated ? pathfinder.findBlockNear(pos) : pathfinder.getBlock(pos);
         }
     }
 }
@@ -18,7 +18,6 @@ package org.terasology.pathfinding.model;
 import com.google.common.collect.Lists;
 
 import java.util.Arrays;
-import java.util.Comparator;
 import java.util.List;
 
 /**
@@ -29,34 +28,37 @@ public class AStar {
     private float[] gMap;
     private float[] fMap;
     private int[] pMap;
-    private List<Integer> successors = Lists.newArrayList();
+    private int[] generationMap;
+    private int[] closedMap;
+    private int generation;
+    private int[] successors = new int[8];
 
     private int start;
     private int end;
 
-    private BinaryHeap openList;
-
-    private List<Integer> closedList = Lists.newArrayList();
+    private MinHeap openList;
 
     public AStar(BitMap graph) {
         this.graph = graph;
         gMap = new float[graph.getNumberOfNodes()];
         fMap = new float[graph.getNumberOfNodes()];
         pMap = new int[graph.getNumberOfNodes()];
-        openList = new BinaryHeap(new Comparator<Integer>() {
-            public int compare(Integer a, Integer b) {
-                float fA = fMap[a];
-                float fB = fMap[b];
-                return -(fA < fB ? -1 : (fA > fB ? 1 : 0));
-            }
-        }, 1024, graph.getNumberOfNodes());
+        generationMap = new int[graph.getNumberOfNodes()];
+        closedMap = new int[graph.getNumberOfNodes()];
+        openList = new MinHeap(1024, graph.getNumberOfNodes());
     }
 
+    /**
+     * Starts a new search generation. Only the stamps of a node tell if its g, f and p values belong to the current
+     * search and if it is closed, so nothing needs to be cleared here, except when the stamp counter wraps around.
+     */
     public void reset() {
-        Arrays.fill(gMap, 0);
-        Arrays.fill(fMap, 0);
-        Arrays.fill(pMap, 0);
-        closedList.clear();
+        generation++;
+        if (generation == Integer.MAX_VALUE) {
+            Arrays.fill(generationMap, 0);
+            Arrays.fill(closedMap, 0);
+            generation = 1;
+        }
         openList.clear();
     }
 
@@ -65,8 +67,8 @@ public class AStar {
         this.start = newStart;
         this.end = newEnd;
 
-        fMap[start] = 0;
-        openList.insert(start);
+        touch(start);
+        openList.insert(start, 0);
 
         while (!openList.isEmpty()) {
             int current = openList.removeMin();
@@ -74,7 +76,7 @@ public class AStar {
                 return true;
             }
             expand(current);
-            closedList.add(current);
+            closedMap[current] = generation;
         }
         return false;
     }
@@ -112,16 +114,16 @@ public class AStar {
         int current = end;
         while (current != start && current != 0) {
             list.add(current);
-            current = pMap[current];
+            current = getP(current);
         }
         list.add(start);
     }
 
     protected void expand(int current) {
-        successors.clear();
-        graph.getSuccessors(current, successors);
-        for (Integer successor : successors) {
-            if (closedList.contains(successor)) {
+        int count = graph.getSuccessors(current, successors);
+        for (int i = 0; i < count; i++) {
+            int successor = successors[i];
+            if (closedMap[successor] == generation) {
                 continue;
             }
 
@@ -130,18 +132,30 @@ public class AStar {
                 continue;
             }
 
+            generationMap[successor] = generation;
             pMap[successor] = current;
             gMap[successor] = tentativeG;
             fMap[successor] = tentativeG + h(successor);
 
             if (openList.contains(successor)) {
-                openList.update(successor);
+                openList.decreaseKey(successor, fMap[successor]);
             } else {
-                openList.insert(successor);
+                openList.insert(successor, fMap[successor]);
             }
         }
     }
 
+    private void touch(int id) {
+        generationMap[id] = generation;
+        gMap[id] = 0;
+        fMap[id] = 0;
+        pMap[id] = 0;
+    }
+
+    private boolean isVisited(int id) {
+        return generationMap[id] == generation;
+    }
+
     protected float c(int from, int to) {
         return graph.exactDistance(from, to);
     }
@@ -151,14 +165,14 @@ public class AStar {
     }
 
     public float getG(int id) {
-        return gMap[id];
+        return isVisited(id) ? gMap[id] : 0;
     }
 
     public float getF(int id) {
-        return fMap[id];
+        return isVisited(id) ? fMap[id] : 0;
     }
 
     public int getP(int id) {
-        return pMap[id];
+        return isVisited(id) ? pMap[id] : 0;
     }
 }
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2013 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.pathfinding.model;
+
+/**
+ * Bidirectional variant of HAStar. One search runs forward from the start block, another one runs backward from the
+ * end block over the reversed edges. Both use the same abstract graph (floors and clusters).
+ * <p/>
+ * The side with the smaller open list is expanded next. Whenever one side reaches a node the other side already
+ * reached, the cost of the path through this node is a candidate for the result. The search stops once no open node
+ * of either side can lead to a cheaper path, i.e. when the larger of both minimal f values is not below the best
+ * candidate. This only holds for a heuristic, that never overestimates, so both sides use the admissible heuristic of
+ * HAStar instead of the manhattan distance.
+ *
+ * @author synopia
+ */
+public class BidirectionalHAStar {
+    private final HAStar forward;
+    private final HAStar backward;
+    private final Meeting meeting = new Meeting();
+    private WalkableBlock startBlock;
+    private WalkableBlock endBlock;
+
+    public BidirectionalHAStar() {
+        this(true);
+    }
+
+    /**
+     * @param useContour see HAStar(boolean)
+     */
+    public BidirectionalHAStar(boolean useContour) {
+        forward = new HAStar(useContour);
+        backward = new HAStar(useContour);
+        backward.setReverse(true);
+        forward.setAdmissibleHeuristic(true);
+        backward.setAdmissibleHeuristic(true);
+        forward.setOpposite(backward, meeting);
+        backward.setOpposite(forward, meeting);
+    }
+
+    public void setHierarchy(ClusterHierarchy hierarchy) {
+        forward.setHierarchy(hierarchy);
+        backward.setHierarchy(hierarchy);
+    }
+
+    public void reset() {
+        forward.reset();
+        backward.reset();
+        meeting.cost = Float.POSITIVE_INFINITY;
+        meeting.block = null;
+    }
+
+    public boolean run(WalkableBlock start, WalkableBlock end) {
+        this.startBlock = start;
+        this.endBlock = end;
+        if (start == end) {
+            meeting.cost = 0;
+            meeting.block = start;
+            return true;
+        }
+        forward.begin(start, end);
+        backward.begin(end, start);
+
+        while (!forward.isOpenListEmpty() && !backward.isOpenListEmpty()) {
+            if (meeting.block != null && Math.max(forward.getMinF(), backward.getMinF()) >= meeting.cost) {
+                break;
+            }
+            HAStar side = forward.getOpenListSize() <= backward.getOpenListSize() ? forward : backward;
+            if (side.isFull()) {
+                break;
+            }
+            side.expandNext();
+        }
+        return meeting.block != null;
+    }
+
+    /**
+     * @return the path found by the last run, the end block first, without the start block
+     */
+    public Path getPath() {
+        Path path = new Path();
+        if (startBlock == endBlock) {
+            return path;
+        }
+        path.addAll(backward.getReversePath(meeting.block));
+        path.addAll(forward.getPath(meeting.block));
+        return path;
+    }
+
+    /**
+     * @return the costs of the path found by the last run
+     */
+    public float getCost() {
+        return meeting.cost;
+    }
+
+    public int getExpandedNodes() {
+        return forward.getExpandedNodes() + backward.getExpandedNodes();
+    }
+
+    @Override
+    public String toString() {
+        return "forward: " + forward + ", backward: " + backward;
+    }
+
+    /**
+     * Best node reached by both searches so far.
+     */
+    /* package protected */ static final class Meeting {
+        float cost = Float.POSITIVE_INFINITY;
+        WalkableBlock block;
+    }
+}
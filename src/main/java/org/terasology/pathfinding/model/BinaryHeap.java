@@ -71,10 +71,12 @@ public class BinaryHeap {
 
     public int removeMin() {
         int min = heap[0];
-        heap[0] = heap[size - 1];
         itemToIndex[min] = -1;
-        resortDown(0);
         size--;
+        if (size > 0) {
+            heap[0] = heap[size];
+            resortDown(0);
+        }
         return min;
     }
 
@@ -118,7 +120,9 @@ public class BinaryHeap {
     }
 
     public void clear() {
+        for (int i = 0; i < size; i++) {
+            itemToIndex[heap[i]] = -1;
+        }
         size = 0;
-        Arrays.fill(itemToIndex, -1);
     }
 }
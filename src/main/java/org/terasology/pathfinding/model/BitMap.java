@@ -15,19 +15,32 @@
  */
 package org.terasology.pathfinding.model;
 
-import java.util.BitSet;
-import java.util.List;
+import java.util.Arrays;
 
 /**
+ * Grid of passable bits, stored row by row in longs (four longs for the default 16x16 map). Other sizes are used by
+ * HAStar, which runs jump point search on 32x16 and 16x32 maps spanning two neighboring chunks.
+ * <p/>
+ * Overlap, merge, cardinality and bounds work on whole words and never allocate, since they are called for every
+ * region while floors are built.
+ *
  * @author synopia
  */
 public class BitMap {
     public static final int KERNEL_SIZE = 3;
     public static final float SQRT_2 = (float) Math.sqrt(2);
-    BitSet map;
+    private final long[] words;
+    private final int width;
+    private final int height;
 
     public BitMap() {
-        map = new BitSet(getNumberOfNodes());
+        this(HeightMap.SIZE_X, HeightMap.SIZE_Z);
+    }
+
+    public BitMap(int width, int height) {
+        this.width = width;
+        this.height = height;
+        words = new long[(getNumberOfNodes() + 63) >>> 6];
     }
 
     public int offset(int x, int y) {
@@ -35,17 +48,22 @@ public class BitMap {
     }
 
     public void setPassable(int offset) {
-        map.set(offset, true);
+        words[offset >>> 6] |= 1L << offset;
     }
 
     public boolean isPassable(int offset) {
-        return map.get(offset);
+        return (words[offset >>> 6] & (1L << offset)) != 0;
     }
 
     public void setPassable(int x, int y) {
         setPassable(offset(x, y));
     }
 
+    public void setImpassable(int x, int y) {
+        int offset = offset(x, y);
+        words[offset >>> 6] &= ~(1L << offset);
+    }
+
     public boolean isPassable(int x, int y) {
         if (x < 0 || y < 0 || x >= getWidth() || y >= getHeight()) {
             return false;
@@ -53,53 +71,135 @@ public class BitMap {
         return isPassable(offset(x, y));
     }
 
-    public void getSuccessors(int offset, List<Integer> successors) {
+    /**
+     * Writes the passable neighbors of offset into successors, which must have room for 8 entries.
+     *
+     * @return number of successors written
+     */
+    public int getSuccessors(int offset, int[] successors) {
         int x = getX(offset);
         int y = getY(offset);
-        if (y > 0 && isPassable(offset - getWidth())) {
-            successors.add(offset - getWidth());
+        int width = getWidth();
+        int count = 0;
+        if (y > 0 && isPassable(offset - width)) {
+            successors[count++] = offset - width;
         }
-        if (x < getWidth() - 1 && isPassable(offset + 1)) {
-            successors.add(offset + 1);
+        if (x < width - 1 && isPassable(offset + 1)) {
+            successors[count++] = offset + 1;
         }
-        if (y < getHeight() - 1 && isPassable(offset + getWidth())) {
-            successors.add(offset + getWidth());
+        if (y < getHeight() - 1 && isPassable(offset + width)) {
+            successors[count++] = offset + width;
         }
         if (x > 0 && isPassable(offset - 1)) {
-            successors.add(offset - 1);
+            successors[count++] = offset - 1;
         }
 
-        if (x < getWidth() - 1 && y > 0 && isPassable(offset + 1 - getWidth())) {
-            successors.add(offset + 1 - getWidth());
+        if (x < width - 1 && y > 0 && isPassable(offset + 1 - width)) {
+            successors[count++] = offset + 1 - width;
         }
-        if (x < getWidth() - 1 && y < getHeight() - 1 && isPassable(offset + 1 + getWidth())) {
-            successors.add(offset + 1 + getWidth());
+        if (x < width - 1 && y < getHeight() - 1 && isPassable(offset + 1 + width)) {
+            successors[count++] = offset + 1 + width;
         }
-        if (x > 0 && y < getHeight() - 1 && isPassable(offset - 1 + getWidth())) {
-            successors.add(offset - 1 + getWidth());
+        if (x > 0 && y < getHeight() - 1 && isPassable(offset - 1 + width)) {
+            successors[count++] = offset - 1 + width;
         }
-        if (x > 0 && y > 0 && isPassable(offset - 1 - getWidth())) {
-            successors.add(offset - 1 - getWidth());
+        if (x > 0 && y > 0 && isPassable(offset - 1 - width)) {
+            successors[count++] = offset - 1 - width;
         }
+        return count;
     }
 
+    /**
+     * @return true, if at least one cell is passable in both maps
+     */
     public boolean overlap(BitMap other) {
-        BitSet temp = (BitSet) map.clone();
-        temp.and(other.map);
-        return temp.cardinality() > 0;
+        int length = Math.min(words.length, other.words.length);
+        for (int i = 0; i < length; i++) {
+            if ((words[i] & other.words[i]) != 0) {
+                return true;
+            }
+        }
+        return false;
     }
 
     public void merge(BitMap other) {
-        map.or(other.map);
+        int length = Math.min(words.length, other.words.length);
+        for (int i = 0; i < length; i++) {
+            words[i] |= other.words[i];
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(words, 0);
+    }
+
+    /**
+     * @return number of passable cells
+     */
+    public int cardinality() {
+        int count = 0;
+        for (long word : words) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    /**
+     * Finds the smallest rectangle containing all passable cells.
+     *
+     * @param bounds receives minX, minY, maxX, maxY (inclusive)
+     * @return false, if no cell is passable, bounds are left untouched then
+     */
+    public boolean getBounds(int[] bounds) {
+        int first = -1;
+        int last = -1;
+        for (int i = 0; i < words.length; i++) {
+            if (words[i] != 0) {
+                if (first < 0) {
+                    first = (i << 6) + Long.numberOfTrailingZeros(words[i]);
+                }
+                last = (i << 6) + 63 - Long.numberOfLeadingZeros(words[i]);
+            }
+        }
+        if (first < 0) {
+            return false;
+        }
+        int minX = width;
+        int maxX = -1;
+        if (64 % width == 0) {
+            // rows never cross words, so or-ing all rows together gives the passable columns
+            long columns = 0;
+            for (long word : words) {
+                columns |= word;
+            }
+            for (int shift = 32; shift >= width; shift >>= 1) {
+                columns |= columns >>> shift;
+            }
+            columns &= width == 64 ? -1L : (1L << width) - 1;
+            minX = Long.numberOfTrailingZeros(columns);
+            maxX = 63 - Long.numberOfLeadingZeros(columns);
+        } else {
+            for (int offset = first; offset <= last; offset++) {
+                if (isPassable(offset)) {
+                    minX = Math.min(minX, getX(offset));
+                    maxX = Math.max(maxX, getX(offset));
+                }
+            }
+        }
+        bounds[0] = minX;
+        bounds[1] = getY(first);
+        bounds[2] = maxX;
+        bounds[3] = getY(last);
+        return true;
     }
 
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
-        int count = map.cardinality();
+        int count = cardinality();
         for (int z = 0; z < getHeight(); z++) {
             for (int x = 0; x < getWidth(); x++) {
-                if (map.get(offset(x, z))) {
+                if (isPassable(offset(x, z))) {
                     sb.append("X");
                     count--;
                 } else {
@@ -119,11 +219,11 @@ public class BitMap {
     }
 
     public int getWidth() {
-        return HeightMap.SIZE_X;
+        return width;
     }
 
     public int getHeight() {
-        return HeightMap.SIZE_Z;
+        return height;
     }
 
     public float exactDistance(int from, int to) {
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2013 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.pathfinding.model;
+
+import org.terasology.math.Vector3i;
+import org.terasology.world.WorldProvider;
+
+/**
+ * Read only copy of the penetrability of all blocks of a chunk, taken in one pass over the world.
+ * <p/>
+ * Scanning a chunk needs each block several times (finding walkable blocks, head room and corner checks while
+ * connecting them). With a snapshot, the world is queried once per block, and the scan itself no longer touches the
+ * live world state. Besides the chunk itself, the snapshot holds HALO slices above it, since the checks of the top
+ * most blocks look up to three blocks higher.
+ * <p/>
+ * Each y slice is stored as 16x16 bits in four longs, one row of 16 bits per z, a set bit marks a penetrable block.
+ * Additionally each column is stored as bits along y, which allows to find the runs of penetrable and solid blocks
+ * of a column without looking at every single block, see getRuns().
+ * <p/>
+ * From the penetrable slices, two more bit planes are derived with word wide operations: head room (two penetrable
+ * blocks above) and walkable (solid with head room). Connections between walkable blocks of a whole slice are found
+ * the same way, by shifting and combining these planes, see findConnections().
+ *
+ * @author synopia
+ */
+public class ChunkSnapshot {
+    public static final int HALO = 3;
+    public static final int WORDS_PER_SLICE = HeightMap.SIZE_X * HeightMap.SIZE_Z / 64;
+    public static final int SLICES = HeightMap.SIZE_Y + HALO;
+    public static final int WORDS_PER_COLUMN = (SLICES + 63) / 64;
+    private static final long NOT_FIRST_COLUMN = 0xfffefffefffefffeL;
+    private static final long NOT_LAST_COLUMN = 0x7fff7fff7fff7fffL;
+
+    private final Vector3i worldPos;
+    private final long[] penetrable = new long[SLICES * WORDS_PER_SLICE];
+    private final long[] columns = new long[HeightMap.SIZE_X * HeightMap.SIZE_Z * WORDS_PER_COLUMN];
+    private final long[] headroom = new long[HeightMap.SIZE_Y * WORDS_PER_SLICE];
+    private final long[] walkable = new long[HeightMap.SIZE_Y * WORDS_PER_SLICE];
+
+    public ChunkSnapshot(WorldProvider world, Vector3i worldPos) {
+        this.worldPos = new Vector3i(worldPos);
+        Vector3i blockPos = new Vector3i();
+        for (int y = 0; y < SLICES; y++) {
+            for (int z = 0; z < HeightMap.SIZE_Z; z++) {
+                for (int x = 0; x < HeightMap.SIZE_X; x++) {
+                    blockPos.set(x + worldPos.x, y + worldPos.y, z + worldPos.z);
+                    if (world.getBlock(blockPos).isPenetrable()) {
+                        int bit = bit(x, z);
+                        penetrable[y * WORDS_PER_SLICE + (bit >> 6)] |= 1L << bit;
+                        columns[bit * WORDS_PER_COLUMN + (y >> 6)] |= 1L << y;
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < headroom.length; i++) {
+            headroom[i] = penetrable[i + WORDS_PER_SLICE] & penetrable[i + 2 * WORDS_PER_SLICE];
+        }
+        // the head room of the two top most slices reaches into the halo, those blocks are never walkable
+        int walkableWords = (HeightMap.SIZE_Y - 2) * WORDS_PER_SLICE;
+        for (int i = 0; i < walkableWords; i++) {
+            walkable[i] = ~penetrable[i] & headroom[i];
+        }
+    }
+
+    /**
+     * @return true, if the given world position lies inside of this snapshot
+     */
+    public boolean contains(int x, int y, int z) {
+        int localX = x - worldPos.x;
+        int localY = y - worldPos.y;
+        int localZ = z - worldPos.z;
+        return localX >= 0 && localX < HeightMap.SIZE_X && localY >= 0 && localY < SLICES && localZ >= 0 && localZ < HeightMap.SIZE_Z;
+    }
+
+    /**
+     * @param x local x
+     * @param y local y, up to SLICES - 1
+     * @param z local z
+     */
+    public boolean isPenetrable(int x, int y, int z) {
+        int bit = bit(x, z);
+        return (penetrable[y * WORDS_PER_SLICE + (bit >> 6)] & (1L << bit)) != 0;
+    }
+
+    /**
+     * Same as isPenetrable(int, int, int), using world coordinates.
+     */
+    public boolean isPenetrableAt(int x, int y, int z) {
+        return isPenetrable(x - worldPos.x, y - worldPos.y, z - worldPos.z);
+    }
+
+    /**
+     * @param y local y, up to SIZE_Y - 1
+     * @return true, if the block is solid and has two penetrable blocks above, inside of the chunk
+     */
+    public boolean isWalkable(int x, int y, int z) {
+        int bit = bit(x, z);
+        return (walkable[y * WORDS_PER_SLICE + (bit >> 6)] & (1L << bit)) != 0;
+    }
+
+    /**
+     * @param y local y, up to SIZE_Y - 1
+     * @return true, if the two blocks above are penetrable
+     */
+    public boolean hasHeadroom(int x, int y, int z) {
+        int bit = bit(x, z);
+        return (headroom[y * WORDS_PER_SLICE + (bit >> 6)] & (1L << bit)) != 0;
+    }
+
+    /**
+     * Finds all walkable blocks of slice y, that can walk to the walkable block in the given direction, which is
+     * heightDiff blocks higher. The rules are the same as in WalkableBlockFinder.canConnect(): straight steps of up to
+     * one block, if the lower block has three penetrable blocks above; diagonal steps only on the same height, if both
+     * corners have head room. Neighbors outside of the chunk are not considered.
+     *
+     * @param y          local y, up to SIZE_Y - 1, y + heightDiff must be inside of the chunk, too
+     * @param heightDiff -1, 0 or 1, diagonal directions only support 0
+     * @param result     receives the bits of the blocks, WORDS_PER_SLICE longs, bit x + z * SIZE_X
+     * @return true, if at least one block was found
+     */
+    public boolean findConnections(int y, int direction, int heightDiff, long[] result) {
+        int dx = HeightMap.DIRECTIONS[direction][0];
+        int dz = HeightMap.DIRECTIONS[direction][1];
+        boolean diagonal = (direction % 2) == 1;
+        long any = 0;
+        for (int word = 0; word < WORDS_PER_SLICE; word++) {
+            long mask = walkable[y * WORDS_PER_SLICE + word] & shifted(walkable, y + heightDiff, word, dx, dz);
+            if (diagonal) {
+                mask &= shifted(headroom, y, word, dx, 0) & shifted(headroom, y, word, 0, dz);
+            } else if (heightDiff > 0) {
+                mask &= penetrable[(y + 3) * WORDS_PER_SLICE + word];
+            } else if (heightDiff < 0) {
+                mask &= shifted(penetrable, y + 2, word, dx, dz);
+            }
+            result[word] = mask;
+            any |= mask;
+        }
+        return any != 0;
+    }
+
+    /**
+     * @return true, if slice y contains at least one walkable block
+     */
+    public boolean hasWalkable(int y) {
+        long any = 0;
+        for (int word = 0; word < WORDS_PER_SLICE; word++) {
+            any |= walkable[y * WORDS_PER_SLICE + word];
+        }
+        return any != 0;
+    }
+
+    /**
+     * Returns one word of a slice of the given plane, moved so that bit (x, z) holds the bit (x + dx, z + dz).
+     * Bits moved in from outside of the slice are cleared.
+     */
+    private static long shifted(long[] plane, int y, int word, int dx, int dz) {
+        int base = y * WORDS_PER_SLICE;
+        int shift = dx + dz * HeightMap.SIZE_X;
+        long value;
+        if (shift > 0) {
+            value = plane[base + word] >>> shift;
+            if (word + 1 < WORDS_PER_SLICE) {
+                value |= plane[base + word + 1] << (64 - shift);
+            }
+        } else if (shift < 0) {
+            value = plane[base + word] << -shift;
+            if (word > 0) {
+                value |= plane[base + word - 1] >>> (64 + shift);
+            }
+        } else {
+            value = plane[base + word];
+        }
+        if (dx > 0) {
+            value &= NOT_LAST_COLUMN;
+        } else if (dx < 0) {
+            value &= NOT_FIRST_COLUMN;
+        }
+        return value;
+    }
+
+    /**
+     * Finds the runs of penetrable and solid blocks of a column inside of the chunk, from top to bottom. Run k starts
+     * at height runs[k] (local y) and goes down to runs[k+1] + 1, the last run goes down to 0. The first run starts
+     * at SIZE_Y - 1 and is penetrable, if that block is. Runs alternate between penetrable and solid. The costs
+     * depend on the number of runs, not on the height of the chunk.
+     *
+     * @param runs receives the start heights, needs room for SIZE_Y entries
+     * @return number of runs
+     */
+    public int getRuns(int x, int z, int[] runs) {
+        int base = bit(x, z) * WORDS_PER_COLUMN;
+        int count = 0;
+        runs[count++] = HeightMap.SIZE_Y - 1;
+        for (int word = (HeightMap.SIZE_Y - 2) >> 6; word >= 0; word--) {
+            long bits = columns[base + word];
+            long above = bits >>> 1;
+            if (word + 1 < WORDS_PER_COLUMN) {
+                above |= columns[base + word + 1] << 63;
+            }
+            // bit y is set, if the block at y differs from the one above, so a new run starts at y
+            long starts = bits ^ above;
+            int highest = HeightMap.SIZE_Y - 2 - (word << 6);
+            if (highest < 63) {
+                starts &= (1L << (highest + 1)) - 1;
+            }
+            while (starts != 0) {
+                int bit = 63 - Long.numberOfLeadingZeros(starts);
+                runs[count++] = (word << 6) + bit;
+                starts &= ~(1L << bit);
+            }
+        }
+        return count;
+    }
+
+    private static int bit(int x, int z) {
+        return x + z * HeightMap.SIZE_X;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2013 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.pathfinding.model;
+
+import com.google.common.collect.Maps;
+import org.terasology.math.Vector3i;
+
+import java.util.Map;
+
+/**
+ * A square of chunks on one level of the ClusterHierarchy. Level 1 clusters group clusterSize x clusterSize chunks,
+ * level n clusters group clusterSize x clusterSize clusters of level n-1.
+ * <p/>
+ * The entrances of a cluster are the abstract blocks of all floors inside the cluster, which touch a floor outside.
+ * For each pair of entrances the cost of the shortest path inside the cluster is cached, together with the
+ * entrances of the next lower level the path passes through (the hops).
+ *
+ * @author synopia
+ */
+public class Cluster {
+    public final int level;
+    public final int minX;
+    public final int minZ;
+    public final int chunkY;
+    public final int span;
+
+    private WalkableBlock[] entrances;
+    private Map<WalkableBlock, Integer> entranceIndex = Maps.newHashMap();
+    private float[] costs;
+    private WalkableBlock[][] hops;
+
+    public Cluster(int level, int minX, int chunkY, int minZ, int span) {
+        this.level = level;
+        this.minX = minX;
+        this.chunkY = chunkY;
+        this.minZ = minZ;
+        this.span = span;
+    }
+
+    /* package protected */ void setEntrances(WalkableBlock[] newEntrances) {
+        entrances = newEntrances;
+        entranceIndex.clear();
+        for (int i = 0; i < entrances.length; i++) {
+            entranceIndex.put(entrances[i], i);
+        }
+        costs = new float[entrances.length * entrances.length];
+        hops = new WalkableBlock[costs.length][];
+    }
+
+    /* package protected */ void setEdge(int from, int to, float cost, WalkableBlock[] edgeHops) {
+        costs[from * entrances.length + to] = cost;
+        hops[from * entrances.length + to] = edgeHops;
+    }
+
+    public boolean contains(Vector3i chunkPos) {
+        return contains(chunkPos.x, chunkPos.y, chunkPos.z);
+    }
+
+    public boolean contains(WalkableBlock block) {
+        Vector3i worldPos = block.floor.heightMap.worldPos;
+        return contains(worldPos.x / HeightMap.SIZE_X, worldPos.y / HeightMap.SIZE_Y, worldPos.z / HeightMap.SIZE_Z);
+    }
+
+    public boolean contains(int chunkX, int chunkY, int chunkZ) {
+        return this.chunkY == chunkY && chunkX >= minX && chunkX < minX + span && chunkZ >= minZ && chunkZ < minZ + span;
+    }
+
+    /**
+     * @return index of the given entrance block, or -1
+     */
+    public int indexOf(WalkableBlock block) {
+        Integer index = entranceIndex.get(block);
+        return index != null ? index : -1;
+    }
+
+    public int getEntranceCount() {
+        return entrances.length;
+    }
+
+    public WalkableBlock getEntrance(int index) {
+        return entrances[index];
+    }
+
+    /**
+     * @return cost of the shortest path from one entrance to another inside this cluster, infinite if there is none
+     */
+    public float getCost(int from, int to) {
+        return costs[from * entrances.length + to];
+    }
+
+    /**
+     * @return the entrances of the next lower level the path from one entrance to another passes through, the last one is the
+     *         target itself
+     */
+    public WalkableBlock[] getHops(int from, int to) {
+        return hops[from * entrances.length + to];
+    }
+
+    @Override
+    public String toString() {
+        return "level " + level + " cluster at " + minX + ", " + minZ + " (" + entrances.length + " entrances)";
+    }
+}
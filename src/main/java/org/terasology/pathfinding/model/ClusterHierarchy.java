@@ -0,0 +1,335 @@
+/*
+ * Copyright 2013 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.pathfinding.model;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.terasology.math.Vector3i;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Additional abstraction levels on top of the floors of the single height maps.
+ * <p/>
+ * Neighboring chunks are grouped into clusters (see Cluster), clusters are grouped into larger clusters and so on.
+ * HAStar uses the cached entrance to entrance costs of the largest cluster, that contains neither the start nor the
+ * target of a search. So a search across many chunks only touches a few entrances per cluster, and the concrete
+ * path is refined level by level, once the search is done.
+ * <p/>
+ * Clusters are built lazily, when they are first needed. Updating a chunk drops all clusters, that may depend on
+ * it. Built clusters are read without locking, building a cluster is synchronized, since searches of several
+ * threads may need it at the same time.
+ *
+ * @author synopia
+ */
+public class ClusterHierarchy {
+    private final Map<Vector3i, HeightMap> heightMaps;
+    private final int levels;
+    private final int clusterSize;
+    private final List<Map<Vector3i, Cluster>> clusters = Lists.newArrayList();
+
+    private final NodePool nodes = new NodePool();
+    private final MinHeap openList = new MinHeap();
+    private final BitSet closedList = new BitSet();
+    private int builtClusters;
+
+    /**
+     * @param heightMaps  the height maps of all loaded chunks
+     * @param levels      number of cluster levels, 0 disables the hierarchy
+     * @param clusterSize number of clusters of the next lower level along each side of a cluster
+     */
+    public ClusterHierarchy(Map<Vector3i, HeightMap> heightMaps, int levels, int clusterSize) {
+        this.heightMaps = heightMaps;
+        this.levels = levels;
+        this.clusterSize = clusterSize;
+        for (int i = 0; i < levels; i++) {
+            clusters.add(Maps.<Vector3i, Cluster>newConcurrentMap());
+        }
+    }
+
+    public int getLevels() {
+        return levels;
+    }
+
+    /**
+     * Drops all clusters, whose entrances or costs may change, if the given chunk changes. Since the precomputed
+     * entrance costs of floors up to two chunks away are updated along with a chunk, so are the clusters there.
+     */
+    public synchronized void invalidate(Vector3i chunkPos) {
+        for (int level = 1; level <= levels; level++) {
+            Map<Vector3i, Cluster> levelClusters = clusters.get(level - 1);
+            for (int x = -2; x <= 2; x++) {
+                for (int z = -2; z <= 2; z++) {
+                    levelClusters.remove(clusterPos(level, chunkPos.x + x, chunkPos.y, chunkPos.z + z));
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds all missing clusters of all loaded chunks.
+     */
+    public void update() {
+        List<Vector3i> chunks = Lists.newArrayList(heightMaps.keySet());
+        for (int level = 1; level <= levels; level++) {
+            for (Vector3i chunkPos : chunks) {
+                getCluster(level, chunkPos);
+            }
+        }
+    }
+
+    /**
+     * @return the highest level, on which the given block is an entrance of a cluster, that contains neither start
+     *         nor end. 0, if there is no such level
+     */
+    public int getLevel(WalkableBlock block, WalkableBlock start, WalkableBlock end) {
+        return getLevel(block, start, new WalkableBlock[]{end}, 1);
+    }
+
+    /**
+     * Same as above, for searches with several end blocks.
+     */
+    public int getLevel(WalkableBlock block, WalkableBlock start, WalkableBlock[] ends, int endCount) {
+        for (int level = levels; level > 0; level--) {
+            Cluster cluster = getCluster(level, block);
+            if (cluster.contains(start) || containsAny(cluster, ends, endCount)) {
+                continue;
+            }
+            if (cluster.indexOf(block) >= 0) {
+                return level;
+            }
+        }
+        return 0;
+    }
+
+    private boolean containsAny(Cluster cluster, WalkableBlock[] blocks, int count) {
+        for (int i = 0; i < count; i++) {
+            if (cluster.contains(blocks[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public Cluster getCluster(int level, WalkableBlock block) {
+        Vector3i worldPos = block.floor.heightMap.worldPos;
+        return getCluster(level, new Vector3i(worldPos.x / HeightMap.SIZE_X, worldPos.y / HeightMap.SIZE_Y,
+                worldPos.z / HeightMap.SIZE_Z));
+    }
+
+    public Cluster getCluster(int level, Vector3i chunkPos) {
+        Vector3i pos = clusterPos(level, chunkPos.x, chunkPos.y, chunkPos.z);
+        Map<Vector3i, Cluster> levelClusters = clusters.get(level - 1);
+        Cluster cluster = levelClusters.get(pos);
+        if (cluster == null) {
+            synchronized (this) {
+                cluster = levelClusters.get(pos);
+                if (cluster == null) {
+                    cluster = build(level, pos);
+                    levelClusters.put(pos, cluster);
+                }
+            }
+        }
+        return cluster;
+    }
+
+    /**
+     * Expands an edge between two entrances of a cluster into the concrete path. Like all paths of HAStar, the
+     * result starts with the target and does not contain the start block.
+     */
+    public Path refine(int level, WalkableBlock from, WalkableBlock to) {
+        Path path = new Path();
+        if (level > 0) {
+            Cluster cluster = getCluster(level, from);
+            int source = cluster.indexOf(from);
+            int target = cluster.indexOf(to);
+            if (source >= 0 && target >= 0 && cluster.getHops(source, target) != null) {
+                WalkableBlock[] hops = cluster.getHops(source, target);
+                for (int i = hops.length - 1; i >= 0; i--) {
+                    path.addAll(refine(level - 1, i > 0 ? hops[i - 1] : from, hops[i]));
+                }
+                return path;
+            }
+        }
+        Floor.EntranceCosts entranceCosts = from.floor.getEntranceCosts();
+        int edge = entranceCosts.findEdge(from, to);
+        if (edge < 0 || entranceCosts.getPath(edge) == Path.INVALID) {
+            throw new IllegalStateException(from + ", " + to + " no path found on level " + level);
+        }
+        path.addAll(entranceCosts.getPath(edge));
+        return path;
+    }
+
+    public synchronized int getBuiltClusters() {
+        return builtClusters;
+    }
+
+    private Cluster build(int level, Vector3i pos) {
+        int span = span(level);
+        Cluster cluster = new Cluster(level, pos.x * span, pos.y, pos.z * span, span);
+        if (level > 1) {
+            // sub clusters are needed for the searches below, build them first
+            int subSpan = span(level - 1);
+            for (int x = 0; x < clusterSize; x++) {
+                for (int z = 0; z < clusterSize; z++) {
+                    getCluster(level - 1, new Vector3i(cluster.minX + x * subSpan, pos.y, cluster.minZ + z * subSpan));
+                }
+            }
+        }
+
+        Set<WalkableBlock> entrances = Sets.newLinkedHashSet();
+        Vector3i chunkPos = new Vector3i();
+        for (int x = 0; x < span; x++) {
+            for (int z = 0; z < span; z++) {
+                chunkPos.set(cluster.minX + x, pos.y, cluster.minZ + z);
+                HeightMap heightMap = heightMaps.get(chunkPos);
+                if (heightMap == null) {
+                    continue;
+                }
+                for (Floor floor : heightMap.floors) {
+                    if (isBorder(cluster, floor)) {
+                        for (Entrance entrance : floor.entrances()) {
+                            WalkableBlock block = entrance.getAbstractBlock();
+                            if (block != null) {
+                                entrances.add(block);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        cluster.setEntrances(entrances.toArray(new WalkableBlock[entrances.size()]));
+        for (int i = 0; i < cluster.getEntranceCount(); i++) {
+            search(cluster, i);
+        }
+        builtClusters++;
+        return cluster;
+    }
+
+    private boolean isBorder(Cluster cluster, Floor floor) {
+        for (Floor neighbor : floor.getNeighborRegions()) {
+            Vector3i worldPos = neighbor.heightMap.worldPos;
+            if (!cluster.contains(worldPos.x / HeightMap.SIZE_X, worldPos.y / HeightMap.SIZE_Y, worldPos.z / HeightMap.SIZE_Z)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Dijkstra search from one entrance to all other entrances of the cluster, using the edges of the next lower
+     * level, which stay inside the cluster.
+     */
+    private void search(Cluster cluster, int source) {
+        nodes.clear();
+        openList.clear();
+        closedList.clear();
+        int subLevel = cluster.level - 1;
+        int remaining = cluster.getEntranceCount();
+
+        openList.insert(nodes.create(cluster.getEntrance(source)), 0);
+        while (!openList.isEmpty()) {
+            int current = openList.removeMin();
+            closedList.set(current);
+            WalkableBlock block = nodes.getBlock(current);
+            if (cluster.indexOf(block) >= 0) {
+                remaining--;
+                if (remaining == 0) {
+                    break;
+                }
+            }
+
+            Cluster subCluster = subLevel > 0 ? getCluster(subLevel, block) : null;
+            int subSource = subCluster != null ? subCluster.indexOf(block) : -1;
+            if (subSource >= 0) {
+                for (int i = 0; i < subCluster.getEntranceCount(); i++) {
+                    relax(current, subCluster.getEntrance(i), subCluster.getCost(subSource, i));
+                }
+            }
+            Floor.EntranceCosts entranceCosts = block.floor.getEntranceCosts();
+            int floorSource = entranceCosts.findSource(block);
+            if (floorSource < 0) {
+                continue;
+            }
+            for (int i = 0; i < entranceCosts.getTargetCount(); i++) {
+                WalkableBlock target = entranceCosts.getTarget(i);
+                if (!cluster.contains(target) || subSource >= 0 && subCluster.contains(target)) {
+                    continue;
+                }
+                relax(current, target, entranceCosts.getCost(entranceCosts.getEdge(floorSource, i)));
+            }
+        }
+
+        for (int i = 0; i < cluster.getEntranceCount(); i++) {
+            int node = nodes.get(cluster.getEntrance(i));
+            if (i == source || node < 0 || !closedList.get(node)) {
+                cluster.setEdge(source, i, Float.POSITIVE_INFINITY, null);
+                continue;
+            }
+            List<WalkableBlock> hops = Lists.newArrayList();
+            for (int current = node; current >= 0 && nodes.getP(current) >= 0; current = nodes.getP(current)) {
+                hops.add(0, nodes.getBlock(current));
+            }
+            cluster.setEdge(source, i, nodes.getG(node), hops.toArray(new WalkableBlock[hops.size()]));
+        }
+    }
+
+    private void relax(int current, WalkableBlock block, float cost) {
+        if (cost == Float.POSITIVE_INFINITY) {
+            return;
+        }
+        int successor = nodes.create(block);
+        if (closedList.get(successor)) {
+            return;
+        }
+        float g = nodes.getG(current) + cost;
+        boolean open = openList.contains(successor);
+        if (open && g >= nodes.getG(successor)) {
+            return;
+        }
+        nodes.set(successor, current, g, g, null);
+        if (open) {
+            openList.decreaseKey(successor, g);
+        } else {
+            openList.insert(successor, g);
+        }
+    }
+
+    private int span(int level) {
+        int span = 1;
+        for (int i = 0; i < level; i++) {
+            span *= clusterSize;
+        }
+        return span;
+    }
+
+    private Vector3i clusterPos(int level, int chunkX, int chunkY, int chunkZ) {
+        int span = span(level);
+        return new Vector3i(floorDiv(chunkX, span), chunkY, floorDiv(chunkZ, span));
+    }
+
+    private static int floorDiv(int value, int divisor) {
+        int result = value / divisor;
+        if (value % divisor != 0 && value < 0) {
+            result--;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,330 @@
+/*
+ * Copyright 2013 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.pathfinding.model;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.terasology.world.WorldProvider;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Updates a height map after blocks of a single column changed, without scanning the whole chunk again.
+ * <p/>
+ * Only the walkable blocks of the column are found again. Blocks at unchanged heights are kept, so all other blocks
+ * and floors stay as they are. The connections are rebuilt for all blocks of the 3x3 columns around the changed one,
+ * since the column is part of the jump and diagonal checks of its neighbors. A new block joins a floor it is connected
+ * to, which has no block in this column yet. If there is no such floor, the block gets a new floor of its own.
+ * <p/>
+ * If a floor would become empty or fall apart, nothing is changed and the whole height map needs to be rebuilt.
+ *
+ * @author synopia
+ */
+public class ColumnUpdater {
+    private final WalkableBlockFinder finder;
+    private final HeightMap map;
+    private final HeightMap left;
+    private final HeightMap up;
+    private final HeightMap right;
+    private final HeightMap down;
+
+    private int columnX;
+    private int columnZ;
+    private List<WalkableBlock> column;
+    private List<WalkableBlock> removed;
+    private List<WalkableBlock> added;
+    private Map<WalkableBlock, WalkableBlock[]> links;
+    private Map<WalkableBlock, Floor> addedFloors;
+    private List<Floor> newFloors;
+
+    public ColumnUpdater(WorldProvider world, HeightMap map, HeightMap left, HeightMap up, HeightMap right, HeightMap down) {
+        this.finder = new WalkableBlockFinder(world);
+        this.map = map;
+        this.left = left;
+        this.up = up;
+        this.right = right;
+        this.down = down;
+    }
+
+    /**
+     * @param x local x of the changed column
+     * @param z local z of the changed column
+     * @return false, if the column cannot be updated in place. The height map is unchanged then.
+     */
+    public boolean update(int x, int z) {
+        columnX = x;
+        columnZ = z;
+        findBlocks();
+        findLinks();
+        if (!findFloors() || !checkFloors()) {
+            return false;
+        }
+        apply();
+        return true;
+    }
+
+    /**
+     * @return all floors with blocks in the 3x3 columns around the changed column, before and after the update
+     */
+    public Set<Floor> getChangedFloors() {
+        Set<Floor> floors = Sets.newHashSet();
+        for (WalkableBlock block : removed) {
+            floors.add(block.floor);
+        }
+        for (WalkableBlock block : links.keySet()) {
+            if (block.floor != null) {
+                floors.add(block.floor);
+            }
+        }
+        return floors;
+    }
+
+    private void findBlocks() {
+        List<WalkableBlock> oldBlocks = map.getCell(columnX, columnZ).blocks;
+        column = Lists.newArrayList();
+        removed = Lists.newArrayList(oldBlocks);
+        added = Lists.newArrayList();
+        for (int height : finder.findWalkableHeights(map, columnX, columnZ)) {
+            WalkableBlock block = null;
+            for (WalkableBlock oldBlock : oldBlocks) {
+                if (oldBlock.height() == height) {
+                    block = oldBlock;
+                    break;
+                }
+            }
+            if (block != null) {
+                removed.remove(block);
+            } else {
+                block = new WalkableBlock(columnX + map.worldPos.x, columnZ + map.worldPos.z, height);
+                added.add(block);
+            }
+            column.add(block);
+        }
+    }
+
+    /**
+     * Finds the new neighbors of all blocks in the 3x3 columns around the changed column. Connections to blocks
+     * outside of this area are not affected by the change and are kept. So are connections into the chunk diagonal
+     * to this map, which only exist between two other maps.
+     */
+    private void findLinks() {
+        links = Maps.newHashMap();
+        for (int dz = -1; dz <= 1; dz++) {
+            for (int dx = -1; dx <= 1; dx++) {
+                int x = columnX + dx;
+                int z = columnZ + dz;
+                List<WalkableBlock> blocks = getBlocks(x, z);
+                if (blocks == null) {
+                    continue;
+                }
+                HeightMap blockMap = getMap(x, z);
+                for (WalkableBlock block : blocks) {
+                    WalkableBlock[] neighbors = block.neighbors.clone();
+                    for (int dir = 0; dir < HeightMap.DIRECTIONS.length; dir++) {
+                        int nx = x + HeightMap.DIRECTIONS[dir][0];
+                        int nz = z + HeightMap.DIRECTIONS[dir][1];
+                        if (Math.abs(nx - columnX) <= 1 && Math.abs(nz - columnZ) <= 1 && getMap(nx, nz) != null) {
+                            neighbors[dir] = findNeighbor(block, blockMap, nx, nz, dir);
+                        }
+                    }
+                    links.put(block, neighbors);
+                }
+            }
+        }
+    }
+
+    /**
+     * Uses the same rules as the full update: WalkableBlockFinder inside of a height map, and
+     * HeightMap.connectNeighborMaps() across the border of two height maps.
+     */
+    private WalkableBlock findNeighbor(WalkableBlock block, HeightMap blockMap, int x, int z, int dir) {
+        HeightMap neighborMap = getMap(x, z);
+        if (neighborMap != blockMap && neighborMap != map && blockMap != map) {
+            // two different neighbor maps are never next to each other
+            return null;
+        }
+        List<WalkableBlock> candidates = getBlocks(x, z);
+        boolean sameMap = neighborMap == blockMap;
+        WalkableBlock neighbor = null;
+        for (WalkableBlock candidate : candidates) {
+            if (sameMap ? finder.canConnect(block, candidate, dir) : Math.abs(candidate.height() - block.height()) < 2) {
+                neighbor = candidate;
+            }
+        }
+        return neighbor;
+    }
+
+    private boolean findFloors() {
+        addedFloors = Maps.newHashMap();
+        newFloors = Lists.newArrayList();
+        Set<Floor> taken = Sets.newHashSet();
+        for (WalkableBlock block : column) {
+            if (block.floor != null) {
+                taken.add(block.floor);
+            }
+        }
+        for (WalkableBlock block : added) {
+            Floor floor = null;
+            for (WalkableBlock neighbor : links.get(block)) {
+                if (neighbor != null && neighbor.floor != null && neighbor.floor.heightMap == map && !taken.contains(neighbor.floor)) {
+                    floor = neighbor.floor;
+                    break;
+                }
+            }
+            if (floor == null) {
+                floor = new Floor(map, nextFloorId());
+                newFloors.add(floor);
+            }
+            taken.add(floor);
+            addedFloors.put(block, floor);
+        }
+        return true;
+    }
+
+    private int nextFloorId() {
+        int id = newFloors.size();
+        for (Floor floor : map.floors) {
+            id = Math.max(id, floor.id + newFloors.size() + 1);
+        }
+        return id;
+    }
+
+    /**
+     * Floors, which lose a block or a connection between two of their blocks, must still be connected.
+     */
+    private boolean checkFloors() {
+        Set<Floor> floors = Sets.newHashSet();
+        for (WalkableBlock block : removed) {
+            floors.add(block.floor);
+        }
+        for (Map.Entry<WalkableBlock, WalkableBlock[]> entry : links.entrySet()) {
+            WalkableBlock block = entry.getKey();
+            if (block.floor == null || block.floor.heightMap != map) {
+                continue;
+            }
+            for (int dir = 0; dir < block.neighbors.length; dir++) {
+                WalkableBlock oldNeighbor = block.neighbors[dir];
+                if (oldNeighbor != null && oldNeighbor != entry.getValue()[dir] && oldNeighbor.floor == block.floor) {
+                    floors.add(block.floor);
+                }
+            }
+        }
+        for (Floor floor : floors) {
+            if (!isConnected(floor)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isConnected(Floor floor) {
+        WalkableBlock first = null;
+        int count = 0;
+        for (WalkableBlock block : map.walkableBlocks) {
+            if (block.floor == floor && !removed.contains(block)) {
+                first = block;
+                count++;
+            }
+        }
+        for (WalkableBlock block : added) {
+            if (addedFloors.get(block) == floor) {
+                first = block;
+                count++;
+            }
+        }
+        if (first == null) {
+            return false;
+        }
+        Set<WalkableBlock> visited = Sets.newHashSet();
+        List<WalkableBlock> open = Lists.newArrayList();
+        visited.add(first);
+        open.add(first);
+        while (!open.isEmpty()) {
+            WalkableBlock current = open.remove(open.size() - 1);
+            WalkableBlock[] neighbors = links.containsKey(current) ? links.get(current) : current.neighbors;
+            for (WalkableBlock neighbor : neighbors) {
+                if (neighbor != null && getFloor(neighbor) == floor && !removed.contains(neighbor) && visited.add(neighbor)) {
+                    open.add(neighbor);
+                }
+            }
+        }
+        return visited.size() == count;
+    }
+
+    private Floor getFloor(WalkableBlock block) {
+        Floor floor = addedFloors.get(block);
+        return floor != null ? floor : block.floor;
+    }
+
+    private void apply() {
+        for (WalkableBlock block : removed) {
+            block.floor.setBlock(block, false);
+            map.borderBlocks.remove(block);
+        }
+        map.floors.addAll(newFloors);
+        for (WalkableBlock block : added) {
+            addedFloors.get(block).setBlock(block, true);
+            if (columnX == 0 || columnZ == 0 || columnX == HeightMap.SIZE_X - 1 || columnZ == HeightMap.SIZE_Z - 1) {
+                map.borderBlocks.add(block);
+            }
+        }
+        for (Map.Entry<WalkableBlock, WalkableBlock[]> entry : links.entrySet()) {
+            WalkableBlock[] neighbors = entry.getValue();
+            System.arraycopy(neighbors, 0, entry.getKey().neighbors, 0, neighbors.length);
+        }
+        for (WalkableBlock block : removed) {
+            for (int dir = 0; dir < block.neighbors.length; dir++) {
+                block.neighbors[dir] = null;
+            }
+        }
+        List<WalkableBlock> blocks = map.getCell(columnX, columnZ).blocks;
+        blocks.clear();
+        blocks.addAll(column);
+        map.indexBlocks();
+    }
+
+    /**
+     * @return the height map of the given column, local coordinates may lie up to one column outside of the map
+     */
+    private HeightMap getMap(int x, int z) {
+        boolean outsideX = x < 0 || x >= HeightMap.SIZE_X;
+        boolean outsideZ = z < 0 || z >= HeightMap.SIZE_Z;
+        if (outsideX && outsideZ) {
+            return null;
+        }
+        if (outsideX) {
+            return x < 0 ? left : right;
+        }
+        if (outsideZ) {
+            return z < 0 ? up : down;
+        }
+        return map;
+    }
+
+    private List<WalkableBlock> getBlocks(int x, int z) {
+        if (x == columnX && z == columnZ) {
+            return column;
+        }
+        HeightMap columnMap = getMap(x, z);
+        if (columnMap == null) {
+            return null;
+        }
+        return columnMap.getCell((x + HeightMap.SIZE_X) % HeightMap.SIZE_X, (z + HeightMap.SIZE_Z) % HeightMap.SIZE_Z).blocks;
+    }
+}
@@ -29,6 +29,9 @@ public class Floor extends BaseRegion<Floor> {
     private Entrance[] entranceMap;
     private List<Entrance> entrances;
 
+    private EntranceCosts entranceCosts = EntranceCosts.EMPTY;
+    private int version;
+
     public Floor(HeightMap heightMap, int id) {
         super(id);
         this.heightMap = heightMap;
@@ -59,9 +62,102 @@ public class Floor extends BaseRegion<Floor> {
         }
     }
 
+    /**
+     * @return counter, which changes whenever blocks are added to or removed from this floor after it was found
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /* package protected */ void setBlock(WalkableBlock block, boolean member) {
+        int x = TeraMath.calcBlockPosX(block.x());
+        int z = TeraMath.calcBlockPosZ(block.z());
+        if (member) {
+            map.setPassable(x, z);
+            block.floor = this;
+        } else {
+            map.setImpassable(x, z);
+        }
+        version++;
+    }
+
     public void resetEntrances() {
         Arrays.fill(entranceMap, null);
         entrances.clear();
+        entranceCosts = EntranceCosts.EMPTY;
+    }
+
+    /**
+     * Precomputes the abstract edges HAStar uses when it leaves this floor: from the abstract block of each entrance
+     * of this floor to the abstract block of each entrance of every neighbor floor. Needs the entrances of all
+     * neighbor floors to be up to date.
+     *
+     * @param localAStar search used to find the local paths
+     */
+    public void updateEntranceCosts(HAStar localAStar) {
+        entranceCosts = findEntranceCosts(localAStar, findSources(), findTargets());
+    }
+
+    /**
+     * Like updateEntranceCosts(HAStar), after the blocks of a single column changed. The previous table is kept, if it
+     * has the same sources and targets, all of its targets were reachable and none of its paths touches the 3x3
+     * columns around the changed one.
+     *
+     * @param x world x of the changed column
+     * @param z world z of the changed column
+     * @return true, if the table was built again
+     */
+    public boolean updateEntranceCosts(HAStar localAStar, EntranceCosts previous, int x, int z) {
+        WalkableBlock[] sources = findSources();
+        WalkableBlock[] targets = findTargets();
+        if (previous.isUnaffected(sources, targets, x, z)) {
+            entranceCosts = previous;
+            return false;
+        }
+        entranceCosts = findEntranceCosts(localAStar, sources, targets);
+        return true;
+    }
+
+    private WalkableBlock[] findSources() {
+        List<WalkableBlock> sources = Lists.newArrayList();
+        for (Entrance entrance : entrances) {
+            WalkableBlock block = entrance.getAbstractBlock();
+            if (block != null) {
+                sources.add(block);
+            }
+        }
+        return sources.toArray(new WalkableBlock[sources.size()]);
+    }
+
+    private WalkableBlock[] findTargets() {
+        List<WalkableBlock> targets = Lists.newArrayList();
+        for (Floor neighborFloor : neighborRegions) {
+            for (Entrance entrance : neighborFloor.entrances()) {
+                WalkableBlock block = entrance.getAbstractBlock();
+                if (block != null) {
+                    targets.add(block);
+                }
+            }
+        }
+        return targets.toArray(new WalkableBlock[targets.size()]);
+    }
+
+    private static EntranceCosts findEntranceCosts(HAStar localAStar, WalkableBlock[] sources, WalkableBlock[] targets) {
+        EntranceCosts newCosts = new EntranceCosts(sources, targets);
+        // targets of the same neighbor floor are next to each other, so the local search can reuse its setup
+        for (int j = 0; j < newCosts.targets.length; j++) {
+            for (int i = 0; i < newCosts.sources.length; i++) {
+                Path path = localAStar.findLocalPath(newCosts.sources[i], newCosts.targets[j]);
+                int edge = i * newCosts.targets.length + j;
+                newCosts.paths[edge] = path;
+                newCosts.costs[edge] = path == Path.INVALID ? Float.POSITIVE_INFINITY : path.size();
+            }
+        }
+        return newCosts;
+    }
+
+    public EntranceCosts getEntranceCosts() {
+        return entranceCosts;
     }
 
     public boolean isEntrance(WalkableBlock block) {
@@ -125,4 +221,100 @@ public class Floor extends BaseRegion<Floor> {
         }
         return null;
     }
+
+    /**
+     * Immutable table of the precomputed abstract edges of a floor, edge i * targets.length + j leads from
+     * sources[i] to targets[j].
+     */
+    public static final class EntranceCosts {
+        public static final EntranceCosts EMPTY = new EntranceCosts(new WalkableBlock[0], new WalkableBlock[0]);
+
+        private final WalkableBlock[] sources;
+        private final WalkableBlock[] targets;
+        private final float[] costs;
+        private final Path[] paths;
+
+        private EntranceCosts(WalkableBlock[] sources, WalkableBlock[] targets) {
+            this.sources = sources;
+            this.targets = targets;
+            costs = new float[sources.length * targets.length];
+            paths = new Path[costs.length];
+        }
+
+        /**
+         * @return index of the edge from one of the sources to one of the targets, or -1
+         */
+        public int findEdge(WalkableBlock from, WalkableBlock to) {
+            int source = indexOf(sources, from);
+            if (source < 0) {
+                return -1;
+            }
+            int target = indexOf(targets, to);
+            if (target < 0) {
+                return -1;
+            }
+            return source * targets.length + target;
+        }
+
+        /**
+         * @return index of the given source block, or -1
+         */
+        public int findSource(WalkableBlock from) {
+            return indexOf(sources, from);
+        }
+
+        public int getEdge(int source, int target) {
+            return source * targets.length + target;
+        }
+
+        public int getTargetCount() {
+            return targets.length;
+        }
+
+        public WalkableBlock getTarget(int target) {
+            return targets[target];
+        }
+
+        public float getCost(int edge) {
+            return costs[edge];
+        }
+
+        public Path getPath(int edge) {
+            return paths[edge];
+        }
+
+        public int size() {
+            return costs.length;
+        }
+
+        /**
+         * @return true, if the table has the given sources and targets, and all of its paths exist and stay away from
+         *         the 3x3 columns around the given world column
+         */
+        private boolean isUnaffected(WalkableBlock[] newSources, WalkableBlock[] newTargets, int x, int z) {
+            if (!Arrays.equals(sources, newSources) || !Arrays.equals(targets, newTargets)) {
+                return false;
+            }
+            for (Path path : paths) {
+                if (path == null || path == Path.INVALID) {
+                    return false;
+                }
+                for (WalkableBlock block : path) {
+                    if (Math.abs(block.x() - x) <= 1 && Math.abs(block.z() - z) <= 1) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        private static int indexOf(WalkableBlock[] blocks, WalkableBlock block) {
+            for (int i = 0; i < blocks.length; i++) {
+                if (blocks[i] == block) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
 }
@@ -16,31 +16,44 @@
 package org.terasology.pathfinding.model;
 
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 import org.terasology.math.Vector3i;
 
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 /**
+ * Finds the regions of a height map (connected sweeps of blocks, row by row) and merges them into floors.
+ * <p/>
+ * All bookkeeping is done in int arrays, indexed by block id (the cell offset and the slot of the block in its cell,
+ * see HeightMap.indexBlocks()), by region id or by sweep index within the current row. The arrays only used while
+ * finding regions are scratch buffers, kept per thread and reused for every chunk.
+ *
  * @author synopia
  */
 public class FloorFinder {
+    private static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+
     private List<Region> regions = Lists.newArrayList();
-    private Map<Region, Integer> count = Maps.newHashMap();
-    private List<Sweep> sweeps = Lists.newArrayList();
-    private Map<WalkableBlock, Region> regionMap = Maps.newHashMap();
-    private Map<WalkableBlock, Sweep> sweepMap = Maps.newHashMap();
+    private int[] regionMap = new int[0];
+    private HeightMap map;
 
 
     public FloorFinder() {
     }
 
     public Region region(WalkableBlock block) {
-        return regionMap.get(block);
+        if (block == null || !map.contains(block)) {
+            return null;
+        }
+        int id = regionMap[block.id];
+        return id < 0 ? null : regions.get(id);
     }
 
     public List<Region> regions() {
@@ -51,6 +64,7 @@ public class FloorFinder {
         findRegions(map);
 
         map.floors.clear();
+        BitSet pending = SCRATCH.get().pending;
         for (Region region : regions) {
             if (region.floor != null) {
                 continue;
@@ -58,17 +72,13 @@ public class FloorFinder {
             Floor floor = new Floor(map, map.floors.size());
             map.floors.add(floor);
 
-            List<Region> stack = Lists.newLinkedList();
-            stack.add(0, region);
+            // regions to visit, always continue with the lowest id. region ids are indices into regions
+            pending.clear();
+            pending.set(region.id);
 
-            while (!stack.isEmpty()) {
-                Collections.sort(stack, new Comparator<Region>() {
-                    @Override
-                    public int compare(Region o1, Region o2) {
-                        return o1.id < o2.id ? -1 : o1.id > o2.id ? 1 : 0;
-                    }
-                });
-                Region current = stack.remove(0);
+            for (int id = pending.nextSetBit(0); id >= 0; id = pending.nextSetBit(0)) {
+                pending.clear(id);
+                Region current = regions.get(id);
                 if (current.floor != null) {
                     continue;
                 }
@@ -78,41 +88,49 @@ public class FloorFinder {
                     Set<Region> neighborRegions = current.getNeighborRegions();
                     for (Region neighborRegion : neighborRegions) {
                         if (neighborRegion.floor == null) {
-                            stack.add(neighborRegion);
+                            pending.set(neighborRegion.id);
                         }
                     }
                 }
             }
         }
 
-        for (Map.Entry<WalkableBlock, Region> entry : regionMap.entrySet()) {
-            entry.getKey().floor = entry.getValue().floor;
+        for (WalkableBlock block : map.walkableBlocks) {
+            int id = regionMap[block.id];
+            if (id >= 0) {
+                block.floor = regions.get(id).floor;
+            }
         }
     }
 
-    void findRegions(HeightMap map) {
+    void findRegions(HeightMap heightMap) {
+        map = heightMap;
         Vector3i worldPos = map.worldPos;
         regions.clear();
-        regionMap.clear();
-        sweepMap.clear();
+        int blockCount = map.walkableBlocks.size();
+        if (regionMap.length < blockCount) {
+            regionMap = new int[blockCount];
+        }
+        Arrays.fill(regionMap, 0, blockCount, -1);
+        Scratch scratch = SCRATCH.get();
+        scratch.ensureBlocks(blockCount);
 
         for (int z = 0; z < HeightMap.SIZE_Z; z++) {
-            count.clear();
-            sweeps.clear();
+            scratch.sweepCount = 0;
+            scratch.row = z;
             // find sweeps
             for (int x = 0; x < HeightMap.SIZE_X; x++) {
                 int offset = x + z * HeightMap.SIZE_Z;
-                HeightMapCell cell = map.cells[offset];
-
-                findSweeps(cell);
+                findSweeps(map.cells[offset], scratch);
             }
             // map sweeps to regions
-            for (Sweep sweep : sweeps) {
-                if (sweep.neighbor != null && sweep.neighborCount == count.get(sweep.neighbor)) {
-                    sweep.region = sweep.neighbor;
+            for (int sweep = 0; sweep < scratch.sweepCount; sweep++) {
+                int neighbor = scratch.sweepNeighbor[sweep];
+                if (neighbor >= 0 && scratch.sweepNeighborCount[sweep] == scratch.getCount(neighbor)) {
+                    scratch.sweepRegion[sweep] = neighbor;
                 } else {
-                    sweep.region = new Region(regions.size());
-                    regions.add(sweep.region);
+                    scratch.sweepRegion[sweep] = regions.size();
+                    regions.add(new Region(regions.size()));
                 }
             }
             for (int x = 0; x < HeightMap.SIZE_X; x++) {
@@ -120,48 +138,44 @@ public class FloorFinder {
                 HeightMapCell cell = map.cells[offset];
 
                 for (WalkableBlock block : cell.blocks) {
-                    Sweep sweep = sweepMap.remove(block);
-                    Region region = sweep.region;
-                    regionMap.put(block, region);
-                    region.setPassable(block.x() - worldPos.x, block.z() - worldPos.z);
+                    int id = scratch.sweepRegion[scratch.sweepMap[block.id]];
+                    regionMap[block.id] = id;
+                    regions.get(id).setPassable(block.x() - worldPos.x, block.z() - worldPos.z);
                 }
             }
         }
-        findRegionNeighbors(map);
+        findRegionNeighbors();
     }
 
-    private void findSweeps(HeightMapCell cell) {
+    private void findSweeps(HeightMapCell cell, Scratch scratch) {
         for (WalkableBlock block : cell.blocks) {
-            Sweep sweep;
+            int sweep;
             WalkableBlock leftNeighbor = block.neighbors[HeightMap.DIR_LEFT];
-            if (leftNeighbor != null) {
-                sweep = sweepMap.get(leftNeighbor);
+            if (leftNeighbor != null && map.contains(leftNeighbor)) {
+                sweep = scratch.sweepMap[leftNeighbor.id];
             } else {
-                sweep = new Sweep();
-                sweeps.add(sweep);
+                sweep = scratch.addSweep();
             }
             WalkableBlock upNeighbor = block.neighbors[HeightMap.DIR_UP];
-            if (upNeighbor != null) {
-                Region neighborRegion = regionMap.get(upNeighbor);
-                if (neighborRegion != null) {
-                    if (sweep.neighborCount == 0) {
-                        sweep.neighbor = neighborRegion;
+            if (upNeighbor != null && map.contains(upNeighbor)) {
+                int neighborRegion = regionMap[upNeighbor.id];
+                if (neighborRegion >= 0) {
+                    if (scratch.sweepNeighborCount[sweep] == 0) {
+                        scratch.sweepNeighbor[sweep] = neighborRegion;
                     }
-                    if (sweep.neighbor == neighborRegion) {
-                        sweep.neighborCount++;
-                        int c = count.containsKey(neighborRegion) ? count.get(neighborRegion) : 0;
-                        c++;
-                        count.put(neighborRegion, c);
+                    if (scratch.sweepNeighbor[sweep] == neighborRegion) {
+                        scratch.sweepNeighborCount[sweep]++;
+                        scratch.setCount(neighborRegion, scratch.getCount(neighborRegion) + 1);
                     } else {
-                        sweep.neighbor = null;
+                        scratch.sweepNeighbor[sweep] = -1;
                     }
                 }
             }
-            sweepMap.put(block, sweep);
+            scratch.sweepMap[block.id] = sweep;
         }
     }
 
-    private void findRegionNeighbors(HeightMap map) {
+    private void findRegionNeighbors() {
         for (int z = 0; z < HeightMap.SIZE_Z; z++) {
             for (int x = 0; x < HeightMap.SIZE_X; x++) {
                 int offset = x + z * HeightMap.SIZE_Z;
@@ -173,13 +187,14 @@ public class FloorFinder {
 
     private void findRegionNeighbors(HeightMapCell cell) {
         for (WalkableBlock block : cell.blocks) {
-            Region region = regionMap.get(block);
-            if (region == null) {
+            int id = regionMap[block.id];
+            if (id < 0) {
                 continue;
             }
+            Region region = regions.get(id);
 
             for (WalkableBlock neighbor : block.neighbors) {
-                Region neighborRegion = regionMap.get(neighbor);
+                Region neighborRegion = region(neighbor);
                 if ((neighbor == null) || (neighborRegion != null && neighborRegion.id != region.id)) {
                     region.addNeighborBlock(block, neighbor, neighborRegion);
                 }
@@ -187,4 +202,50 @@ public class FloorFinder {
         }
     }
 
+    /**
+     * Scratch buffers of one thread. A sweep is a run of connected blocks within one row, it only lives while its
+     * row is processed.
+     */
+    private static final class Scratch {
+        private int[] sweepMap = new int[0];
+        private int[] sweepRegion = new int[HeightMap.SIZE_X];
+        private int[] sweepNeighbor = new int[HeightMap.SIZE_X];
+        private int[] sweepNeighborCount = new int[HeightMap.SIZE_X];
+        private int sweepCount;
+        // number of blocks of the current row below each region, only valid if countRow equals row
+        private int[] count = new int[0];
+        private int[] countRow = new int[0];
+        private int row;
+        private final BitSet pending = new BitSet();
+
+        private void ensureBlocks(int blockCount) {
+            if (sweepMap.length < blockCount) {
+                sweepMap = new int[blockCount];
+                // there are never more regions than blocks
+                count = new int[blockCount];
+                countRow = new int[blockCount];
+            }
+            Arrays.fill(countRow, 0, blockCount, -1);
+        }
+
+        private int addSweep() {
+            if (sweepCount == sweepRegion.length) {
+                sweepRegion = Arrays.copyOf(sweepRegion, sweepCount * 2);
+                sweepNeighbor = Arrays.copyOf(sweepNeighbor, sweepCount * 2);
+                sweepNeighborCount = Arrays.copyOf(sweepNeighborCount, sweepCount * 2);
+            }
+            sweepNeighbor[sweepCount] = -1;
+            sweepNeighborCount[sweepCount] = 0;
+            return sweepCount++;
+        }
+
+        private int getCount(int region) {
+            return countRow[region] == row ? count[region] : 0;
+        }
+
+        private void setCount(int region, int value) {
+            count[region] = value;
+            countRow[region] = row;
+        }
+    }
 }
@@ -16,17 +16,14 @@
 package org.terasology.pathfinding.model;
 
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.terasology.math.TeraMath;
 import org.terasology.math.Vector3i;
 
+import java.util.Arrays;
 import java.util.BitSet;
-import java.util.Comparator;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 
 /**
  * @author synopia
@@ -34,20 +31,65 @@ import java.util.Set;
 public class HAStar {
     private static final Logger logger = LoggerFactory.getLogger(HAStar.class);
     private static final int MAX_NODES = 64 * 1024;
+
+    /**
+     * State of a search, that is driven step by step, see step().
+     */
+    public enum Status {
+        RUNNING,
+        FOUND,
+        FAILED
+    }
+
     private Path localPath;
     private HAStar localAStar;
 
-    private List<Node> nodes = Lists.newArrayList();
+    private NodePool nodes = new NodePool();
 
-    private Map<WalkableBlock, Integer> nodeMap = Maps.newHashMap();
     private int start;
     private int end;
+    private WalkableBlock[] endBlocks = new WalkableBlock[1];
+    private int endCount;
+    private Status status = Status.FAILED;
+    private boolean exhausted;
+    private boolean partialPaths;
+    private boolean admissibleHeuristic;
+    private int maxNodes = MAX_NODES;
+    private int bestNode;
+    private float bestH;
     private int cacheHits;
+    private int precomputedEdges;
     private int localPathsUsed;
-    private BinaryHeap openList;
+    private MinHeap openList;
 
     private BitSet closedList = new BitSet(16 * 1024);
     private boolean useContour;
+    private ClusterHierarchy hierarchy;
+    private int clusterEdges;
+    private boolean reverse;
+    private HAStar opposite;
+    private BidirectionalHAStar.Meeting meeting;
+    private PathCache.Callback localSearch = new PathCache.Callback() {
+        @Override
+        public Path run(WalkableBlock from, WalkableBlock to) {
+            return localAStar.findLocalPath(from, to);
+        }
+    };
+
+    private BitMap[] jumpPointMaps;
+    private JumpPointSearch[] jumpPointSearches;
+    private BitMap jumpPointMap;
+    private JumpPointSearch jumpPointSearch;
+    private int fromOffsetX;
+    private int fromOffsetZ;
+    private int toOffsetX;
+    private int toOffsetZ;
+    private Floor jumpPointFrom;
+    private Floor jumpPointTo;
+    private int jumpPointFromVersion;
+    private int jumpPointToVersion;
+    private boolean jumpPointUsable;
+    private int jumpPointPaths;
 
     public HAStar() {
         this(true);
@@ -55,191 +97,638 @@ public class HAStar {
 
     public HAStar(boolean useContour) {
         this.useContour = useContour;
-        openList = new BinaryHeap(new Comparator<Integer>() {
-            @Override
-            public int compare(Integer a, Integer b) {
-                float fA = nodes.get(a).f;
-                float fB = nodes.get(b).f;
-                return -(fA < fB ? -1 : (fA > fB ? 1 : 0));
-            }
-        }, MAX_NODES, MAX_NODES);
+        openList = new MinHeap(1024, MAX_NODES);
         if (useContour) {
             localAStar = new HAStar(false);
+        } else {
+            jumpPointMaps = new BitMap[3];
+            jumpPointSearches = new JumpPointSearch[3];
         }
     }
 
+    /**
+     * @param hierarchy cluster levels to use for abstract nodes far away from start and end, or null
+     */
+    public void setHierarchy(ClusterHierarchy hierarchy) {
+        this.hierarchy = hierarchy;
+    }
+
+    /**
+     * @param maxNodes number of nodes, a search may create, before it gives up. At most 64k, which is the default
+     */
+    public void setMaxNodes(int maxNodes) {
+        this.maxNodes = Math.min(maxNodes, MAX_NODES);
+    }
+
+    /**
+     * @param partialPaths if true, searches track the expanded node closest to the end, see getPartialPath()
+     */
+    public void setPartialPaths(boolean partialPaths) {
+        this.partialPaths = partialPaths;
+    }
+
+    /**
+     * By default, h() is the manhattan distance, which may overestimate the remaining costs, so the first path found
+     * is not always the cheapest one. An admissible h() never overestimates, which BidirectionalHAStar needs to stop
+     * at the cheapest path. Since the costs of abstract edges count the steps of their local paths, and a step moves
+     * at most one block along each axis, the admissible h() is the largest distance along any axis.
+     */
+    public void setAdmissibleHeuristic(boolean admissibleHeuristic) {
+        this.admissibleHeuristic = admissibleHeuristic;
+    }
+
+    /**
+     * A reverse search runs from its start block to its end block over the reversed edges, so the costs it finds are
+     * the costs of walking from end to start.
+     */
+    public void setReverse(boolean reverse) {
+        this.reverse = reverse;
+    }
+
+    /**
+     * Connects this search to the search running in the opposite direction. Whenever a node is reached, that the
+     * other search already reached, the meeting is updated.
+     */
+    /* package protected */ void setOpposite(HAStar opposite, BidirectionalHAStar.Meeting meeting) {
+        this.opposite = opposite;
+        this.meeting = meeting;
+    }
+
     public void reset() {
         nodes.clear();
-        nodeMap.clear();
         closedList.clear();
         openList.clear();
         cacheHits = 0;
-    }
-
-    private int create(WalkableBlock block) {
-        Integer id = nodeMap.get(block);
-        if (id != null) {
-            return id;
-        }
-        Node node = new Node();
-        node.block = block;
-        node.id = nodes.size();
-        nodes.add(node);
-        nodeMap.put(block, node.id);
-        return node.id;
+        precomputedEdges = 0;
+        clusterEdges = 0;
     }
 
     public boolean run(WalkableBlock startBlock, WalkableBlock endBlock) {
-        this.start = create(startBlock);
-        this.end = create(endBlock);
-
-        openList.insert(this.start);
+        begin(startBlock, endBlock);
+        return step(Integer.MAX_VALUE, Long.MAX_VALUE) == Status.FOUND;
+    }
 
-        int maxSize = 0;
-        int current = -1;
+    /**
+     * Continues the search started by begin(). Returns, once the end block is reached, the search failed or the
+     * given budget is used up, whatever comes first. At least one node is expanded per call, so a search always
+     * makes progress. The node pool and the open list are kept between calls.
+     *
+     * @param maxExpansions maximum number of nodes to expand
+     * @param maxNanos      maximum time to spend, Long.MAX_VALUE for no limit
+     * @return RUNNING, if the budget was used up before the search was done
+     */
+    public Status step(int maxExpansions, long maxNanos) {
+        if (status != Status.RUNNING) {
+            return status;
+        }
+        long deadline = maxNanos == Long.MAX_VALUE ? Long.MAX_VALUE : System.nanoTime() + maxNanos;
+        int expansions = 0;
         while (!openList.isEmpty()) {
-            current = openList.removeMin();
+            if (expansions > 0 && (expansions >= maxExpansions || deadline != Long.MAX_VALUE && System.nanoTime() >= deadline)) {
+                return status;
+            }
+            int current = openList.removeMin();
             if (current == this.end) {
+                status = Status.FOUND;
+                return status;
+            }
+            if (isFull()) {
+                exhausted = true;
                 break;
             }
-            if (nodes.size() > MAX_NODES - MAX_NODES / 10) {
-                logger.info("stop hpa*... nodes: " + nodes.size());
+            if (partialPaths) {
+                updateBestNode(current);
+            }
+            expand(current);
+            closedList.set(current);
+            expansions++;
+        }
+        status = Status.FAILED;
+        return status;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    private void updateBestNode(int current) {
+        float currentH = h(current);
+        if (bestNode < 0 || currentH < bestH || currentH == bestH && nodes.getG(current) < nodes.getG(bestNode)) {
+            bestNode = current;
+            bestH = currentH;
+        }
+    }
+
+    /**
+     * Only if partial paths are enabled: after a search, that failed because it ran out of nodes, the path to the
+     * expanded node closest to the end block by heuristic. The path is marked as partial.
+     *
+     * @return the partial path in the same form as getPath(), or null
+     */
+    public Path getPartialPath() {
+        if (status != Status.FAILED || !exhausted || bestNode < 0 || bestNode == start) {
+            return null;
+        }
+        Path path = getPath(bestNode);
+        path.setPartial(true);
+        return path;
+    }
+
+    /**
+     * Searches from the start block towards several end blocks at once. The heuristic is the distance to the
+     * nearest end block.
+     *
+     * @param all if true, the search goes on until all end blocks are reached, otherwise it stops at the first one
+     * @return number of end blocks reached, see isReached()
+     */
+    public int run(WalkableBlock startBlock, List<WalkableBlock> ends, boolean all) {
+        if (ends.isEmpty()) {
+            return 0;
+        }
+        this.start = nodes.create(startBlock);
+        endCount = 0;
+        for (WalkableBlock block : ends) {
+            addEnd(block);
+        }
+        this.end = nodes.create(endBlocks[0]);
+        openList.insert(this.start, 0);
+
+        int remaining = endCount;
+        int reached = 0;
+        while (!openList.isEmpty() && remaining > 0) {
+            int current = openList.removeMin();
+            if (isFull()) {
                 break;
             }
             expand(current);
             closedList.set(current);
+            if (isEnd(nodes.getBlock(current))) {
+                reached++;
+                remaining = all ? remaining - 1 : 0;
+            }
+        }
+        return reached;
+    }
+
+    /**
+     * @return true, if the last search found the shortest path to the given block
+     */
+    public boolean isReached(WalkableBlock block) {
+        int id = nodes.get(block);
+        return id >= 0 && closedList.get(id);
+    }
+
+    /**
+     * Starts a search from the start block to the end block, which is then driven by step(). The search must be
+     * reset() before.
+     */
+    public void begin(WalkableBlock startBlock, WalkableBlock endBlock) {
+        this.start = nodes.create(startBlock);
+        this.end = nodes.create(endBlock);
+        endBlocks[0] = endBlock;
+        endCount = 1;
+        status = Status.RUNNING;
+        exhausted = false;
+        bestNode = -1;
+
+        openList.insert(this.start, 0);
+    }
+
+    private void addEnd(WalkableBlock block) {
+        if (isEnd(block)) {
+            return;
+        }
+        if (endCount == endBlocks.length) {
+            endBlocks = Arrays.copyOf(endBlocks, endCount * 2);
+        }
+        endBlocks[endCount++] = block;
+    }
 
-            if (openList.getSize() > maxSize) {
-                maxSize = openList.getSize();
+    private boolean isEnd(WalkableBlock block) {
+        for (int i = 0; i < endCount; i++) {
+            if (endBlocks[i] == block) {
+                return true;
             }
         }
-        return current == this.end;
+        return false;
+    }
+
+    private boolean isOnEndHeightMap(HeightMap heightMap) {
+        for (int i = 0; i < endCount; i++) {
+            if (endBlocks[i].floor.heightMap == heightMap) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Expands the open node with the lowest f value, used when the search is driven from outside.
+     */
+    /* package protected */ void expandNext() {
+        int current = openList.removeMin();
+        expand(current);
+        closedList.set(current);
+    }
+
+    /* package protected */ boolean isOpenListEmpty() {
+        return openList.isEmpty();
+    }
+
+    /* package protected */ int getOpenListSize() {
+        return openList.getSize();
+    }
+
+    /* package protected */ float getMinF() {
+        return openList.getMinKey();
+    }
+
+    /* package protected */ boolean isFull() {
+        if (nodes.size() > maxNodes - maxNodes / 10) {
+            logger.info("stop hpa*... nodes: " + nodes.size());
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return g value of the given block, if it is open or closed, infinite otherwise
+     */
+    /* package protected */ float getReachedG(WalkableBlock block) {
+        int id = nodes.get(block);
+        if (id >= 0 && (id == start || openList.contains(id) || closedList.get(id))) {
+            return nodes.getG(id);
+        }
+        return Float.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Finds a path between two blocks of neighboring floors. A jump point search on the combined bit maps of both
+     * floors is tried first. Its path is only taken, if all steps are valid block connections, otherwise and for
+     * floors that cannot be combined this search runs on the blocks.
+     *
+     * @return path from one block to the other, the target first, without the start block; or Path.INVALID
+     */
+    public Path findLocalPath(WalkableBlock from, WalkableBlock to) {
+        Path path = jumpPointSearches != null ? findJumpPointPath(from, to) : null;
+        if (path != null) {
+            jumpPointPaths++;
+            return path;
+        }
+        reset();
+        if (run(from, to)) {
+            return getPath();
+        }
+        return Path.INVALID;
+    }
+
+    private Path findJumpPointPath(WalkableBlock from, WalkableBlock to) {
+        Floor fromFloor = from.floor;
+        Floor toFloor = to.floor;
+        if (fromFloor != jumpPointFrom || toFloor != jumpPointTo
+                || fromFloor.getVersion() != jumpPointFromVersion || toFloor.getVersion() != jumpPointToVersion) {
+            jumpPointFrom = fromFloor;
+            jumpPointTo = toFloor;
+            jumpPointFromVersion = fromFloor.getVersion();
+            jumpPointToVersion = toFloor.getVersion();
+            jumpPointUsable = prepareJumpPointMap(from, fromFloor, toFloor);
+        }
+        if (!jumpPointUsable) {
+            return null;
+        }
+        int start = jumpPointCell(from);
+        int target = jumpPointCell(to);
+        if (!jumpPointSearch.run(start, target)) {
+            return null;
+        }
+        List<Integer> cells = jumpPointSearch.getPath();
+        Path path = new Path();
+        for (int i = 0; i < cells.size() - 1; i++) {
+            int x = jumpPointMap.getX(cells.get(i));
+            int z = jumpPointMap.getY(cells.get(i));
+            WalkableBlock block;
+            if (x >= toOffsetX && x < toOffsetX + HeightMap.SIZE_X && z >= toOffsetZ && z < toOffsetZ + HeightMap.SIZE_Z
+                    && toFloor.getMap().isPassable(x - toOffsetX, z - toOffsetZ)) {
+                block = toFloor.getBlock(x - toOffsetX, z - toOffsetZ);
+            } else {
+                block = fromFloor.getBlock(x - fromOffsetX, z - fromOffsetZ);
+            }
+            if (block == null) {
+                return null;
+            }
+            path.add(block);
+        }
+        // the bit maps do not know about heights, so check the steps are real connections
+        for (int i = 0; i < path.size(); i++) {
+            WalkableBlock next = i + 1 < path.size() ? path.get(i + 1) : from;
+            if (!path.get(i).hasNeighbor(next)) {
+                return null;
+            }
+        }
+        return path;
+    }
+
+    /**
+     * Combines the bit maps of both floors into one grid for the jump point search. Floors of the same height map
+     * share a 16x16 grid, if they do not overlap. Floors of two height maps next to each other are placed side by
+     * side on a 32x16 or 16x32 grid. Both floors need to be flat at the same height.
+     *
+     * @return false, if the floors cannot be combined
+     */
+    private boolean prepareJumpPointMap(WalkableBlock from, Floor fromFloor, Floor toFloor) {
+        Vector3i fromPos = fromFloor.heightMap.worldPos;
+        Vector3i toPos = toFloor.heightMap.worldPos;
+        int dx = (toPos.x - fromPos.x) / HeightMap.SIZE_X;
+        int dz = (toPos.z - fromPos.z) / HeightMap.SIZE_Z;
+        if (toPos.y != fromPos.y || Math.abs(dx) + Math.abs(dz) > 1) {
+            return false;
+        }
+        if (dx == 0 && dz == 0 && fromFloor != toFloor && fromFloor.getMap().overlap(toFloor.getMap())) {
+            return false;
+        }
+        int shape = dx != 0 ? 1 : dz != 0 ? 2 : 0;
+        if (jumpPointSearches[shape] == null) {
+            jumpPointMaps[shape] = new BitMap(HeightMap.SIZE_X * (dx != 0 ? 2 : 1), HeightMap.SIZE_Z * (dz != 0 ? 2 : 1));
+            jumpPointSearches[shape] = new JumpPointSearch(jumpPointMaps[shape]);
+        }
+        jumpPointMap = jumpPointMaps[shape];
+        jumpPointSearch = jumpPointSearches[shape];
+        fromOffsetX = dx < 0 ? HeightMap.SIZE_X : 0;
+        fromOffsetZ = dz < 0 ? HeightMap.SIZE_Z : 0;
+        toOffsetX = dx > 0 ? HeightMap.SIZE_X : 0;
+        toOffsetZ = dz > 0 ? HeightMap.SIZE_Z : 0;
+
+        jumpPointMap.clear();
+        int height = from.height();
+        if (!copyFloor(fromFloor, fromOffsetX, fromOffsetZ, height) || !copyFloor(toFloor, toOffsetX, toOffsetZ, height)) {
+            return false;
+        }
+        jumpPointSearch.update();
+        return true;
+    }
+
+    /**
+     * @return false, if the floor is not flat at the given height. Steps up or down connect blocks straight only,
+     *         which a bit map cannot express
+     */
+    private boolean copyFloor(Floor floor, int offsetX, int offsetZ, int height) {
+        BitMap floorMap = floor.getMap();
+        for (int z = 0; z < HeightMap.SIZE_Z; z++) {
+            for (int x = 0; x < HeightMap.SIZE_X; x++) {
+                if (floorMap.isPassable(x, z)) {
+                    WalkableBlock block = floor.getBlock(x, z);
+                    if (block == null || block.height() != height) {
+                        return false;
+                    }
+                    jumpPointMap.setPassable(x + offsetX, z + offsetZ);
+                }
+            }
+        }
+        return true;
+    }
+
+    private int jumpPointCell(WalkableBlock block) {
+        boolean onTo = block.floor == jumpPointTo;
+        int x = TeraMath.calcBlockPosX(block.x()) + (onTo ? toOffsetX : fromOffsetX);
+        int z = TeraMath.calcBlockPosZ(block.z()) + (onTo ? toOffsetZ : fromOffsetZ);
+        return jumpPointMap.offset(x, z);
+    }
+
+    /**
+     * @return number of local paths found by jump point search
+     */
+    public int getJumpPointPaths() {
+        return useContour ? localAStar.jumpPointPaths : jumpPointPaths;
+    }
+
+    public int getExpandedNodes() {
+        return closedList.cardinality();
     }
 
     public Path getPath() {
         localPathsUsed = 0;
+        return getPath(end);
+    }
+
+    /**
+     * @return the costs of the path found by the last run
+     */
+    public float getCost() {
+        return nodes.getG(end);
+    }
+
+    /**
+     * @return path from the start block to the given reached block, the given block first, without the start block
+     */
+    /* package protected */ Path getPath(WalkableBlock block) {
+        return getPath(nodes.get(block));
+    }
+
+    /**
+     * Only for reverse searches: the path from the given reached block to the start block of this search, which is
+     * the end block of the actual path. The start block is the first element, the given block is not part of it.
+     */
+    /* package protected */ Path getReversePath(WalkableBlock block) {
+        List<Integer> chain = Lists.newArrayList();
+        for (int current = nodes.get(block); current != start && current != -1; current = nodes.getP(current)) {
+            chain.add(current);
+        }
         Path path = new Path();
-        Node startNode = nodes.get(this.start);
-        Node current = nodes.get(end);
-        while (current != startNode && current != null) {
-            if (current.path != null) {
-                path.addAll(current.path);
+        for (int i = chain.size() - 1; i >= 0; i--) {
+            int current = chain.get(i);
+            WalkableBlock from = nodes.getBlock(current);
+            WalkableBlock to = nodes.getBlock(nodes.getP(current));
+            int level = nodes.getLevel(current);
+            if (level > 0) {
+                path.addAll(hierarchy.refine(level, from, to));
+            } else {
+                c(from, to);
+                if (localPath != null) {
+                    path.addAll(localPath);
+                } else {
+                    path.add(to);
+                }
+            }
+        }
+        return path;
+    }
+
+    private Path getPath(int node) {
+        Path path = new Path();
+        int current = node;
+        while (current != start && current != -1) {
+            Path nodePath = nodes.getPath(current);
+            int level = nodes.getLevel(current);
+            if (level > 0) {
+                path.addAll(hierarchy.refine(level, nodes.getBlock(nodes.getP(current)), nodes.getBlock(current)));
+                localPathsUsed++;
+            } else if (nodePath != null) {
+                path.addAll(nodePath);
                 localPathsUsed++;
             } else {
-                path.add(current.block);
+                path.add(nodes.getBlock(current));
             }
-            current = current.p;
+            current = nodes.getP(current);
         }
         return path;
     }
 
     protected void expand(int current) {
-        Node currentNode = nodes.get(current);
-        Floor currentFloor = currentNode.block.floor;
-        Set<WalkableBlock> neighbors = new HashSet<WalkableBlock>();
-        boolean onEndHeightMap = nodes.get(end).block.floor.heightMap == currentFloor.heightMap;
-        boolean onStartHeightMap = nodes.get(start).block.floor.heightMap == currentFloor.heightMap;
+        WalkableBlock currentBlock = nodes.getBlock(current);
+        Floor currentFloor = currentBlock.floor;
+        boolean onEndHeightMap = isOnEndHeightMap(currentFloor.heightMap);
+        boolean onStartHeightMap = nodes.getBlock(start).floor.heightMap == currentFloor.heightMap;
         if (!useContour || onEndHeightMap || onStartHeightMap) {
             // normal A* if on start or end height map
-            for (WalkableBlock neighbor : currentNode.block.neighbors) {
-                if (neighbor == null) {
-                    continue;
+            for (WalkableBlock neighbor : currentBlock.neighbors) {
+                if (neighbor != null) {
+                    expandNeighbor(current, neighbor);
                 }
-                neighbors.add(neighbor);
             }
-        } else {
+        } else if (hierarchy == null || !expandCluster(current, currentBlock)) {
             // otherwise use entrances of other floor
             for (Floor neighborFloor : currentFloor.neighborRegions) {
-                for (Entrance neighborEntrance : neighborFloor.entrances()) {
-                    neighbors.add(neighborEntrance.getAbstractBlock());
+                List<Entrance> entrances = neighborFloor.entrances();
+                for (int i = 0; i < entrances.size(); i++) {
+                    WalkableBlock neighbor = entrances.get(i).getAbstractBlock();
+                    if (neighbor != null) {
+                        expandNeighbor(current, neighbor);
+                    }
                 }
             }
         }
+    }
 
-        for (WalkableBlock neighbor : neighbors) {
-            expandNeighbor(current, currentNode, neighbor);
+    /**
+     * Expands an entrance of a cluster, that contains neither start nor any end, using the cached costs of the cluster
+     * and the edges leaving it.
+     *
+     * @return false, if the block is no such entrance
+     */
+    private boolean expandCluster(int current, WalkableBlock currentBlock) {
+        int level = hierarchy.getLevel(currentBlock, nodes.getBlock(start), endBlocks, endCount);
+        if (level == 0) {
+            return false;
         }
+        Cluster cluster = hierarchy.getCluster(level, currentBlock);
+        int source = cluster.indexOf(currentBlock);
+        for (int i = 0; i < cluster.getEntranceCount(); i++) {
+            float cost = reverse ? cluster.getCost(i, source) : cluster.getCost(source, i);
+            if (cost != Float.POSITIVE_INFINITY) {
+                int successor = nodes.create(cluster.getEntrance(i));
+                if (!closedList.get(successor)) {
+                    clusterEdges++;
+                    relax(current, successor, cost, null, level);
+                }
+            }
+        }
+        Floor.EntranceCosts entranceCosts = currentBlock.floor.getEntranceCosts();
+        int floorSource = entranceCosts.findSource(currentBlock);
+        if (floorSource >= 0) {
+            for (int i = 0; i < entranceCosts.getTargetCount(); i++) {
+                WalkableBlock target = entranceCosts.getTarget(i);
+                if (cluster.contains(target)) {
+                    continue;
+                }
+                int successor = nodes.create(target);
+                if (!closedList.get(successor)) {
+                    float cost = c(reverse ? target : currentBlock, reverse ? currentBlock : target);
+                    if (cost != Float.POSITIVE_INFINITY) {
+                        relax(current, successor, cost, reverse ? null : localPath, 0);
+                    }
+                }
+            }
+        }
+        return true;
     }
 
-    private void expandNeighbor(int current, Node currentNode, WalkableBlock neighbor) {
-        int successor = create(neighbor);
+    private void expandNeighbor(int current, WalkableBlock neighbor) {
+        int successor = nodes.create(neighbor);
         if (closedList.get(successor)) {
             return;
         }
-        float tentativeG = currentNode.g + c(current, successor);
-        Node successorNode = nodes.get(successor);
-        if (openList.contains(successor) && tentativeG >= successorNode.g) {
+        WalkableBlock currentBlock = nodes.getBlock(current);
+        float cost = reverse ? c(neighbor, currentBlock) : c(currentBlock, neighbor);
+        if (cost == Float.POSITIVE_INFINITY) {
             return;
         }
-        successorNode.path = localPath;
-        successorNode.p = currentNode;
-        successorNode.g = tentativeG;
-        successorNode.f = tentativeG + h(successor);
+        // paths of reverse searches are not needed, the edges are resolved again in getReversePath()
+        relax(current, successor, cost, reverse ? null : localPath, 0);
+    }
+
+    private void relax(int current, int successor, float cost, Path path, int level) {
+        boolean open = openList.contains(successor);
+        float tentativeG = nodes.getG(current) + cost;
+        if (open && tentativeG >= nodes.getG(successor)) {
+            return;
+        }
+        float f = tentativeG + h(successor);
+        nodes.set(successor, current, tentativeG, f, path, level);
+        if (opposite != null) {
+            WalkableBlock block = nodes.getBlock(successor);
+            float otherG = opposite.getReachedG(block);
+            if (tentativeG + otherG < meeting.cost) {
+                meeting.cost = tentativeG + otherG;
+                meeting.block = block;
+            }
+        }
 
-        if (openList.contains(successor)) {
-            openList.update(successor);
+        if (open) {
+            openList.decreaseKey(successor, f);
         } else {
-            openList.insert(successor);
+            openList.insert(successor, f);
         }
     }
 
-    protected float c(int from, int to) {
+    protected float c(WalkableBlock fromBlock, WalkableBlock toBlock) {
         localPath = null;
-        Node fromNode = nodes.get(from);
-        Node toNode = nodes.get(to);
-        Vector3i fromPos = fromNode.block.getBlockPosition();
-        Vector3i toPos = toNode.block.getBlockPosition();
+        Vector3i fromPos = fromBlock.getBlockPosition();
+        Vector3i toPos = toBlock.getBlockPosition();
         int diffX = Math.abs(fromPos.x - toPos.x);
         int diffZ = Math.abs(fromPos.z - toPos.z);
-        if (toNode.block.hasNeighbor(fromNode.block)) {
+        if (toBlock.hasNeighbor(fromBlock)) {
             if (diffX + diffZ == 1) {
                 return 1;
             } else {
                 return BitMap.SQRT_2;
             }
         }
-        if (fromNode.block.floor.heightMap.pathCache.hasPath(fromNode.block, toNode.block)) {
+        Floor.EntranceCosts entranceCosts = fromBlock.floor.getEntranceCosts();
+        int edge = entranceCosts.findEdge(fromBlock, toBlock);
+        if (edge >= 0) {
+            localPath = entranceCosts.getPath(edge);
+            precomputedEdges++;
+            return entranceCosts.getCost(edge);
+        }
+        PathCache pathCache = fromBlock.floor.heightMap.pathCache;
+        if (pathCache.hasPath(fromBlock, toBlock)) {
             cacheHits++;
         }
-        localPath = fromNode.block.floor.heightMap.pathCache.findPath(
-                fromNode.block, toNode.block, new PathCache.Callback() {
-            @Override
-            public Path run(WalkableBlock from, WalkableBlock to) {
-
-                localAStar.reset();
-                if (localAStar.run(from, to)) {
-                    return localAStar.getPath();
-                }
-                return Path.INVALID;
-            }
-        });
+        localPath = pathCache.findPath(fromBlock, toBlock, localSearch);
         if (localPath == null || localPath == Path.INVALID) {
-            throw new IllegalStateException(fromNode + ", " + toNode + " no costs found!");
+            throw new IllegalStateException(fromBlock + ", " + toBlock + " no costs found!");
         }
 
         return localPath.size();
     }
 
     protected float h(int current) {
-        Node fromNode = nodes.get(current);
-        Node toNode = nodes.get(end);
-        Vector3i fromPos = fromNode.block.getBlockPosition();
-        Vector3i toPos = toNode.block.getBlockPosition();
-        return (float) Math.abs(fromPos.x - toPos.x) + Math.abs(fromPos.y - toPos.y) + Math.abs(fromPos.z - toPos.z);
+        Vector3i fromPos = nodes.getBlock(current).getBlockPosition();
+        float min = Float.POSITIVE_INFINITY;
+        for (int i = 0; i < endCount; i++) {
+            Vector3i toPos = endBlocks[i].getBlockPosition();
+            int dx = Math.abs(fromPos.x - toPos.x);
+            int dy = Math.abs(fromPos.y - toPos.y);
+            int dz = Math.abs(fromPos.z - toPos.z);
+            min = Math.min(min, admissibleHeuristic ? Math.max(Math.max(dx, dz), dy) : dx + dy + dz);
+        }
+        return min;
     }
 
     @Override
     public String toString() {
-        return "closed list size=" + closedList.cardinality() + ", cache hits=" + cacheHits + ", local paths used=" + localPathsUsed;
-    }
-
-    private class Node {
-        int id;
-        float g;
-        float f;
-        Node p;
-        WalkableBlock block;
-        Path path;
+        return "closed list size=" + closedList.cardinality() + ", precomputed edges=" + precomputedEdges
+                + ", cluster edges=" + clusterEdges + ", cache hits=" + cacheHits
+                + ", local paths used=" + localPathsUsed + ", jump point paths=" + getJumpPointPaths();
     }
-
 }
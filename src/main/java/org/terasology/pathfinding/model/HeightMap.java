@@ -16,6 +16,7 @@
 package org.terasology.pathfinding.model;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import org.terasology.math.TeraMath;
 import org.terasology.math.Vector3i;
@@ -23,6 +24,7 @@ import org.terasology.world.WorldProvider;
 import org.terasology.world.chunks.ChunkConstants;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -32,6 +34,10 @@ public class HeightMap {
     public static final int SIZE_X = ChunkConstants.SIZE_X;
     public static final int SIZE_Y = ChunkConstants.SIZE_Y;
     public static final int SIZE_Z = ChunkConstants.SIZE_Z;
+    /**
+     * Maximum number of local paths cached per chunk.
+     */
+    public static final int PATH_CACHE_SIZE = 1024;
     public static final int DIR_LEFT = 0;
     public static final int DIR_LU = 1;
     public static final int DIR_UP = 2;
@@ -49,7 +55,7 @@ public class HeightMap {
     public final Set<WalkableBlock> borderBlocks = Sets.newHashSet();
 
     public Vector3i worldPos;
-    public PathCache pathCache = new PathCache();
+    public PathCache pathCache = new PathCache(PATH_CACHE_SIZE);
 
     /* package protected */ HeightMapCell[] cells = new HeightMapCell[SIZE_X * SIZE_Z];
     private WorldProvider world;
@@ -68,7 +74,94 @@ public class HeightMap {
         new FloorFinder().findFloors(this);
     }
 
+    /**
+     * Updates the walkable blocks of a single column after blocks in it changed, see ColumnUpdater. The neighbor maps
+     * are needed for the connections across the borders of this map.
+     *
+     * @param x local x of the column
+     * @param z local z of the column
+     * @return false, if the column cannot be updated in place, so the whole map needs to be rebuilt
+     */
+    public boolean updateColumn(int x, int z, HeightMap left, HeightMap up, HeightMap right, HeightMap down) {
+        ColumnUpdater updater = new ColumnUpdater(world, this, left, up, right, down);
+        if (!updater.update(x, z)) {
+            return false;
+        }
+        HeightMap leftChanged = x == 0 ? left : null;
+        HeightMap upChanged = z == 0 ? up : null;
+        HeightMap rightChanged = x == SIZE_X - 1 ? right : null;
+        HeightMap downChanged = z == SIZE_Z - 1 ? down : null;
+        updateFloorNeighbors(this, leftChanged, upChanged, rightChanged, downChanged);
+        Map<Floor, Floor.EntranceCosts> previousCosts = Maps.newHashMap();
+        for (Floor floor : updater.getChangedFloors()) {
+            previousCosts.put(floor, floor.getEntranceCosts());
+            floor.heightMap.findContour(floor);
+        }
+        // cached local paths of all neighbors may lead through the changed column
+        for (HeightMap map : new HeightMap[]{this, left, up, right, down}) {
+            if (map != null) {
+                map.pathCache.clear();
+            }
+        }
+        updateEntranceCosts(x + worldPos.x, z + worldPos.z, previousCosts, this, left, up, right, down);
+        return true;
+    }
+
+    /**
+     * Finds the neighbor floors of all floors of the given maps again, using the connections of their blocks.
+     */
+    private static void updateFloorNeighbors(HeightMap... maps) {
+        for (HeightMap map : maps) {
+            if (map != null) {
+                for (Floor floor : map.floors) {
+                    floor.neighborRegions.clear();
+                }
+            }
+        }
+        for (HeightMap map : maps) {
+            if (map != null) {
+                for (WalkableBlock block : map.walkableBlocks) {
+                    for (WalkableBlock neighbor : block.neighbors) {
+                        if (neighbor != null && neighbor.floor != block.floor) {
+                            block.floor.neighborRegions.add(neighbor.floor);
+                            neighbor.floor.neighborRegions.add(block.floor);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Assigns dense ids to all walkable blocks, ordered by cell offset and height, so per block data can be kept in
+     * arrays (see FloorFinder).
+     */
+    void indexBlocks() {
+        walkableBlocks.clear();
+        for (int offset = 0; offset < cells.length; offset++) {
+            for (WalkableBlock block : cells[offset].blocks) {
+                block.id = walkableBlocks.size();
+                walkableBlocks.add(block);
+            }
+        }
+    }
+
+    /**
+     * @return true, if block belongs to this height map
+     */
+    public boolean contains(WalkableBlock block) {
+        return block.id >= 0 && block.id < walkableBlocks.size() && walkableBlocks.get(block.id) == block;
+    }
+
     public void connectNeighborMaps(HeightMap left, HeightMap up, HeightMap right, HeightMap down) {
+        connectNeighborMaps(left, up, right, down, true);
+    }
+
+    /**
+     * @param updateCosts false, if the caller rebuilds the entrance costs itself, using updateEntranceCosts(), after
+     *                    connecting several maps
+     */
+    void connectNeighborMaps(HeightMap left, HeightMap up, HeightMap right, HeightMap down, boolean updateCosts) {
         for (WalkableBlock block : borderBlocks) {
             int x = TeraMath.calcBlockPosX(block.getBlockPosition().x);
             int z = TeraMath.calcBlockPosZ(block.getBlockPosition().z);
@@ -112,6 +205,76 @@ public class HeightMap {
             down.findContour();
             down.pathCache.clear();
         }
+        if (updateCosts) {
+            updateEntranceCosts(this, left, right, up, down);
+        }
+    }
+
+    /**
+     * Rebuilds the precomputed entrance costs of all floors of the given maps, and of all floors next to them, since
+     * their edges lead to the entrances of the given maps. Must run after the contours of the maps are up to date.
+     */
+    static void updateEntranceCosts(HeightMap... maps) {
+        Set<Floor> floors = Sets.newLinkedHashSet();
+        for (HeightMap map : maps) {
+            if (map != null && map.cells != null) {
+                for (Floor floor : map.floors) {
+                    floors.add(floor);
+                    floors.addAll(floor.getNeighborRegions());
+                }
+            }
+        }
+        HAStar localAStar = new HAStar(false);
+        for (Floor floor : floors) {
+            if (floor.heightMap.cells != null) {
+                floor.updateEntranceCosts(localAStar);
+            }
+        }
+    }
+
+    /**
+     * Like updateEntranceCosts(HeightMap...), after a single column changed. Tables, which are not affected by the
+     * change, are kept, see Floor.updateEntranceCosts(HAStar, EntranceCosts, int, int).
+     *
+     * @param previousCosts tables of the floors, whose entrances were found again
+     */
+    private static void updateEntranceCosts(int x, int z, Map<Floor, Floor.EntranceCosts> previousCosts, HeightMap... maps) {
+        Set<Floor> floors = Sets.newLinkedHashSet();
+        for (HeightMap map : maps) {
+            if (map != null) {
+                for (Floor floor : map.floors) {
+                    floors.add(floor);
+                    floors.addAll(floor.getNeighborRegions());
+                }
+            }
+        }
+        HAStar localAStar = new HAStar(false);
+        for (Floor floor : floors) {
+            if (floor.heightMap.cells != null) {
+                Floor.EntranceCosts previous = previousCosts.get(floor);
+                floor.updateEntranceCosts(localAStar, previous != null ? previous : floor.getEntranceCosts(), x, z);
+            }
+        }
+    }
+
+    /**
+     * Finds the entrances of a single floor of this map again.
+     */
+    void findContour(Floor floor) {
+        floor.resetEntrances();
+        for (int z = 0; z < HeightMap.SIZE_Z; z++) {
+            for (int x = 0; x < HeightMap.SIZE_X; x++) {
+                for (WalkableBlock block : getCell(x, z).blocks) {
+                    if (block.floor == floor) {
+                        for (WalkableBlock neighbor : block.neighbors) {
+                            if (neighbor != null && neighbor.floor != floor) {
+                                floor.setEntrance(block, neighbor);
+                            }
+                        }
+                    }
+                }
+            }
+        }
     }
 
     public void findContour() {
@@ -151,6 +314,14 @@ public class HeightMap {
     }
 
     public void disconnectNeighborMaps(HeightMap left, HeightMap up, HeightMap right, HeightMap down) {
+        disconnectNeighborMaps(left, up, right, down, true);
+    }
+
+    /**
+     * @param updateCosts false, if a new map is connected in place of this one right afterwards, which rebuilds the
+     *                    entrance costs of the neighbors anyway
+     */
+    void disconnectNeighborMaps(HeightMap left, HeightMap up, HeightMap right, HeightMap down, boolean updateCosts) {
         for (WalkableBlock block : borderBlocks) {
             int x = TeraMath.calcBlockPosX(block.getBlockPosition().x);
             int z = TeraMath.calcBlockPosZ(block.getBlockPosition().z);
@@ -187,6 +358,9 @@ public class HeightMap {
         if (down != null) {
             down.findContour();
         }
+        if (updateCosts) {
+            updateEntranceCosts(left, right, up, down);
+        }
     }
 
     private void disconnectFromNeighbor(WalkableBlock block, int dx, int dz, HeightMap neighbor, int neighborId) {
@@ -0,0 +1,333 @@
+/*
+ * Copyright 2013 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.pathfinding.model;
+
+import com.google.common.collect.Lists;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Jump point search on a BitMap, an alternative to AStar for open floors.
+ * <p/>
+ * Diagonal moves are only allowed, if both orthogonal cells are passable, too. This is the same rule
+ * WalkableBlockFinder uses to connect blocks diagonally. Instead of expanding every cell, only jump points are put
+ * into the open list: cells with a forced neighbor, where the optimal path may turn.
+ * <p/>
+ * Like in JPS+, the distances to the next jump point (or to the next wall) along the four straight directions are
+ * precomputed for each cell, so straight jumps, and the straight checks done at each step of a diagonal jump, take
+ * constant time. Call update() whenever the bit map changes.
+ *
+ * @author synopia
+ */
+public class JumpPointSearch {
+    private static final int[][] STRAIGHT = new int[][]{{1, 0}, {0, 1}, {-1, 0}, {0, -1}};
+
+    private BitMap graph;
+    private int width;
+    private int height;
+    /**
+     * Per cell and straight direction: k > 0 if the k-th cell in this direction is a jump point, otherwise -k, where
+     * k is the number of passable cells before the next wall.
+     */
+    private int[] jumpDistances;
+
+    private float[] gMap;
+    private int[] pMap;
+    private int[] generationMap;
+    private int[] closedMap;
+    private int generation;
+    private MinHeap openList;
+    private int[] directions = new int[16];
+
+    private int start;
+    private int end;
+    private int expandedNodes;
+
+    public JumpPointSearch(BitMap graph) {
+        this.graph = graph;
+        width = graph.getWidth();
+        height = graph.getHeight();
+        int nodes = graph.getNumberOfNodes();
+        jumpDistances = new int[nodes * STRAIGHT.length];
+        gMap = new float[nodes];
+        pMap = new int[nodes];
+        generationMap = new int[nodes];
+        closedMap = new int[nodes];
+        openList = new MinHeap(256, nodes);
+        update();
+    }
+
+    /**
+     * Recomputes the straight jump distances of all cells.
+     */
+    public void update() {
+        for (int dir = 0; dir < STRAIGHT.length; dir++) {
+            int dx = STRAIGHT[dir][0];
+            int dy = STRAIGHT[dir][1];
+            // walk against the direction, so the distances of the next cell are known already
+            for (int i = 0; i < width; i++) {
+                int x = dx > 0 ? width - 1 - i : i;
+                for (int j = 0; j < height; j++) {
+                    int y = dy > 0 ? height - 1 - j : j;
+                    int nx = x + dx;
+                    int ny = y + dy;
+                    int distance;
+                    if (!isPassable(nx, ny)) {
+                        distance = 0;
+                    } else if (isForced(nx, ny, dx, dy)) {
+                        distance = 1;
+                    } else {
+                        int next = jumpDistances[graph.offset(nx, ny) * STRAIGHT.length + dir];
+                        distance = next > 0 ? next + 1 : next - 1;
+                    }
+                    jumpDistances[graph.offset(x, y) * STRAIGHT.length + dir] = distance;
+                }
+            }
+        }
+    }
+
+    public void reset() {
+        generation++;
+        if (generation == Integer.MAX_VALUE) {
+            Arrays.fill(generationMap, 0);
+            Arrays.fill(closedMap, 0);
+            generation = 1;
+        }
+        openList.clear();
+        expandedNodes = 0;
+    }
+
+    public boolean run(int newStart, int newEnd) {
+        reset();
+        this.start = newStart;
+        this.end = newEnd;
+
+        generationMap[start] = generation;
+        gMap[start] = 0;
+        pMap[start] = -1;
+        openList.insert(start, 0);
+
+        while (!openList.isEmpty()) {
+            int current = openList.removeMin();
+            if (current == end) {
+                return true;
+            }
+            expand(current);
+            closedMap[current] = generation;
+            expandedNodes++;
+        }
+        return false;
+    }
+
+    /**
+     * @return all cells of the path found, the end first and the start last
+     */
+    public List<Integer> getPath() {
+        List<Integer> result = Lists.newArrayList();
+        int current = end;
+        while (current != start) {
+            int parent = pMap[current];
+            int dx = Integer.signum(graph.getX(parent) - graph.getX(current));
+            int dy = Integer.signum(graph.getY(parent) - graph.getY(current));
+            for (int cell = current; cell != parent; cell += dx + dy * width) {
+                result.add(cell);
+            }
+            current = parent;
+        }
+        result.add(start);
+        return result;
+    }
+
+    /**
+     * @return the jump points of the path found, the end first and the start last
+     */
+    public List<Integer> getJumpPoints() {
+        List<Integer> result = Lists.newArrayList();
+        for (int current = end; current != start; current = pMap[current]) {
+            result.add(current);
+        }
+        result.add(start);
+        return result;
+    }
+
+    public int getExpandedNodes() {
+        return expandedNodes;
+    }
+
+    public float getG(int id) {
+        return generationMap[id] == generation ? gMap[id] : 0;
+    }
+
+    private void expand(int current) {
+        int x = graph.getX(current);
+        int y = graph.getY(current);
+        int count = prunedDirections(current, x, y);
+        for (int i = 0; i < count; i += 2) {
+            int dx = directions[i];
+            int dy = directions[i + 1];
+            int jumpPoint = dx != 0 && dy != 0 ? jumpDiagonal(x, y, dx, dy) : jumpStraight(x, y, dx, dy);
+            if (jumpPoint < 0 || closedMap[jumpPoint] == generation) {
+                continue;
+            }
+            float tentativeG = gMap[current] + octile(current, jumpPoint);
+            boolean open = openList.contains(jumpPoint);
+            if (open && tentativeG >= gMap[jumpPoint]) {
+                continue;
+            }
+            generationMap[jumpPoint] = generation;
+            pMap[jumpPoint] = current;
+            gMap[jumpPoint] = tentativeG;
+            float f = tentativeG + octile(jumpPoint, end);
+            if (open) {
+                openList.decreaseKey(jumpPoint, f);
+            } else {
+                openList.insert(jumpPoint, f);
+            }
+        }
+    }
+
+    /**
+     * Writes the directions worth to follow from the given node into the directions buffer, as dx, dy pairs.
+     *
+     * @return number of entries written (twice the number of directions)
+     */
+    private int prunedDirections(int current, int x, int y) {
+        int count = 0;
+        if (current == start) {
+            for (int dx = -1; dx <= 1; dx++) {
+                for (int dy = -1; dy <= 1; dy++) {
+                    if ((dx != 0 || dy != 0) && canMove(x, y, dx, dy)) {
+                        directions[count++] = dx;
+                        directions[count++] = dy;
+                    }
+                }
+            }
+            return count;
+        }
+        int parent = pMap[current];
+        int dx = Integer.signum(x - graph.getX(parent));
+        int dy = Integer.signum(y - graph.getY(parent));
+        if (dx != 0 && dy != 0) {
+            boolean horizontal = isPassable(x + dx, y);
+            boolean vertical = isPassable(x, y + dy);
+            if (vertical) {
+                directions[count++] = 0;
+                directions[count++] = dy;
+            }
+            if (horizontal) {
+                directions[count++] = dx;
+                directions[count++] = 0;
+            }
+            if (horizontal && vertical) {
+                directions[count++] = dx;
+                directions[count++] = dy;
+            }
+        } else {
+            // straight move, side directions are swapped for vertical moves
+            int sx = dy != 0 ? 1 : 0;
+            int sy = dx != 0 ? 1 : 0;
+            boolean next = isPassable(x + dx, y + dy);
+            boolean side1 = isPassable(x + sx, y + sy);
+            boolean side2 = isPassable(x - sx, y - sy);
+            if (next) {
+                directions[count++] = dx;
+                directions[count++] = dy;
+                if (side1) {
+                    directions[count++] = dx + sx;
+                    directions[count++] = dy + sy;
+                }
+                if (side2) {
+                    directions[count++] = dx - sx;
+                    directions[count++] = dy - sy;
+                }
+            }
+            if (side1) {
+                directions[count++] = sx;
+                directions[count++] = sy;
+            }
+            if (side2) {
+                directions[count++] = -sx;
+                directions[count++] = -sy;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the jump point reached by moving straight from the given cell, or -1
+     */
+    private int jumpStraight(int x, int y, int dx, int dy) {
+        int dir = dx > 0 ? 0 : dy > 0 ? 1 : dx < 0 ? 2 : 3;
+        int distance = jumpDistances[graph.offset(x, y) * STRAIGHT.length + dir];
+        int endX = graph.getX(end);
+        int endY = graph.getY(end);
+        int endDistance = -1;
+        if (dx != 0 && endY == y && Integer.signum(endX - x) == dx) {
+            endDistance = Math.abs(endX - x);
+        } else if (dy != 0 && endX == x && Integer.signum(endY - y) == dy) {
+            endDistance = Math.abs(endY - y);
+        }
+        if (endDistance > 0 && endDistance <= Math.abs(distance)) {
+            return end;
+        }
+        if (distance > 0) {
+            return graph.offset(x + dx * distance, y + dy * distance);
+        }
+        return -1;
+    }
+
+    /**
+     * @return the jump point reached by moving diagonally from the given cell, or -1
+     */
+    private int jumpDiagonal(int x, int y, int dx, int dy) {
+        int cx = x;
+        int cy = y;
+        while (canMove(cx, cy, dx, dy)) {
+            cx += dx;
+            cy += dy;
+            int offset = graph.offset(cx, cy);
+            if (offset == end || jumpStraight(cx, cy, dx, 0) >= 0 || jumpStraight(cx, cy, 0, dy) >= 0) {
+                return offset;
+            }
+        }
+        return -1;
+    }
+
+    private boolean canMove(int x, int y, int dx, int dy) {
+        if (!isPassable(x + dx, y + dy)) {
+            return false;
+        }
+        return dx == 0 || dy == 0 || isPassable(x + dx, y) && isPassable(x, y + dy);
+    }
+
+    private boolean isForced(int x, int y, int dx, int dy) {
+        if (dx != 0) {
+            return isPassable(x, y - 1) && !isPassable(x - dx, y - 1) || isPassable(x, y + 1) && !isPassable(x - dx, y + 1);
+        }
+        return isPassable(x - 1, y) && !isPassable(x - 1, y - dy) || isPassable(x + 1, y) && !isPassable(x + 1, y - dy);
+    }
+
+    private boolean isPassable(int x, int y) {
+        return graph.isPassable(x, y);
+    }
+
+    private float octile(int from, int to) {
+        int dx = Math.abs(graph.getX(from) - graph.getX(to));
+        int dy = Math.abs(graph.getY(from) - graph.getY(to));
+        return Math.max(dx, dy) + (BitMap.SQRT_2 - 1) * Math.min(dx, dy);
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2013 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.pathfinding.model;
+
+import java.util.Arrays;
+
+/**
+ * Binary min heap of (float key, int item) pairs, kept in parallel primitive arrays.
+ * <p/>
+ * Items are small non negative ints (node ids), so the position of each item is tracked in an index array, which
+ * gives O(1) contains() and O(log n) decreaseKey(). No boxing and no comparator calls are involved.
+ *
+ * @author synopia
+ */
+public class MinHeap {
+    private static final int DEFAULT_CAPACITY = 1024;
+    private static final int DEFAULT_INDEX_SIZE = 1024;
+    private float[] keys;
+    private int[] items;
+    private int[] itemToIndex;
+    private int size;
+
+    public MinHeap() {
+        this(DEFAULT_CAPACITY, DEFAULT_INDEX_SIZE);
+    }
+
+    public MinHeap(int capacity, int indexSize) {
+        keys = new float[capacity];
+        items = new int[capacity];
+        itemToIndex = new int[indexSize];
+        Arrays.fill(itemToIndex, -1);
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean contains(int item) {
+        return item < itemToIndex.length && itemToIndex[item] > -1;
+    }
+
+    public float getKey(int item) {
+        return keys[itemToIndex[item]];
+    }
+
+    public float getMinKey() {
+        return keys[0];
+    }
+
+    public int getMin() {
+        return items[0];
+    }
+
+    public void insert(int item, float key) {
+        if (items.length <= size) {
+            enlarge(items.length * 2);
+        }
+        if (itemToIndex.length <= item) {
+            enlargeIndex(Math.max(item + 1, itemToIndex.length * 2));
+        }
+        int last = size;
+        size++;
+        resortUp(last, item, key);
+    }
+
+    /**
+     * Lowers the key of an item already in the heap. Raising a key is not supported.
+     */
+    public void decreaseKey(int item, float key) {
+        resortUp(itemToIndex[item], item, key);
+    }
+
+    public int removeMin() {
+        int min = items[0];
+        itemToIndex[min] = -1;
+        size--;
+        if (size > 0) {
+            resortDown(0, items[size], keys[size]);
+        }
+        return min;
+    }
+
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            itemToIndex[items[i]] = -1;
+        }
+        size = 0;
+    }
+
+    private void resortUp(int index, int item, float key) {
+        int currentIndex = index;
+        while (currentIndex > 0) {
+            int parent = (currentIndex - 1) >> 1;
+            if (keys[parent] <= key) {
+                break;
+            }
+            keys[currentIndex] = keys[parent];
+            items[currentIndex] = items[parent];
+            itemToIndex[items[currentIndex]] = currentIndex;
+            currentIndex = parent;
+        }
+        keys[currentIndex] = key;
+        items[currentIndex] = item;
+        itemToIndex[item] = currentIndex;
+    }
+
+    private void resortDown(int index, int item, float key) {
+        int currentIndex = index;
+        int half = size >> 1;
+        while (currentIndex < half) {
+            int child = currentIndex * 2 + 1;
+            if (child + 1 < size && keys[child + 1] < keys[child]) {
+                child++;
+            }
+            if (key <= keys[child]) {
+                break;
+            }
+            keys[currentIndex] = keys[child];
+            items[currentIndex] = items[child];
+            itemToIndex[items[currentIndex]] = currentIndex;
+            currentIndex = child;
+        }
+        keys[currentIndex] = key;
+        items[currentIndex] = item;
+        itemToIndex[item] = currentIndex;
+    }
+
+    private void enlarge(int newSize) {
+        keys = Arrays.copyOf(keys, newSize);
+        items = Arrays.copyOf(items, newSize);
+    }
+
+    private void enlargeIndex(int newSize) {
+        int oldSize = itemToIndex.length;
+        itemToIndex = Arrays.copyOf(itemToIndex, newSize);
+        Arrays.fill(itemToIndex, oldSize, newSize, -1);
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2013 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.pathfinding.model;
+
+import org.terasology.math.Vector3i;
+
+import java.util.Arrays;
+
+/**
+ * Struct of arrays store for the nodes of a HAStar search.
+ * <p/>
+ * Every block touched by a search gets a dense node id, the per node values are kept in parallel arrays indexed by
+ * this id. Blocks are mapped to ids using an open addressing table, whose slots are stamped with a generation
+ * counter. So clearing the store is cheap, and once the arrays have grown to the size a search needs, no further
+ * allocations happen.
+ *
+ * @author synopia
+ */
+public class NodePool {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private float[] g;
+    private float[] f;
+    private int[] p;
+    private WalkableBlock[] blocks;
+    private Path[] paths;
+    private byte[] levels;
+    private int size;
+
+    private int[] table;
+    private int[] tableStamps;
+    private int mask;
+    private int generation = 1;
+
+    public NodePool() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public NodePool(int capacity) {
+        allocate(Integer.highestOneBit(Math.max(capacity, 16) - 1) << 1);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(blocks, 0, size, null);
+        Arrays.fill(paths, 0, size, null);
+        size = 0;
+        generation++;
+        if (generation == Integer.MAX_VALUE) {
+            Arrays.fill(tableStamps, 0);
+            generation = 1;
+        }
+    }
+
+    /**
+     * @return the node id of the given block, or -1 if the block was not touched yet
+     */
+    public int get(WalkableBlock block) {
+        int slot = hash(block) & mask;
+        while (tableStamps[slot] == generation) {
+            int id = table[slot];
+            if (blocks[id] == block) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the node id of the given block, a new node is created if the block was not touched yet
+     */
+    public int create(WalkableBlock block) {
+        int slot = hash(block) & mask;
+        while (tableStamps[slot] == generation) {
+            int id = table[slot];
+            if (blocks[id] == block) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (size == blocks.length) {
+            grow();
+            return create(block);
+        }
+        int id = size;
+        size++;
+        blocks[id] = block;
+        g[id] = 0;
+        f[id] = 0;
+        p[id] = -1;
+        paths[id] = null;
+        levels[id] = 0;
+        table[slot] = id;
+        tableStamps[slot] = generation;
+        return id;
+    }
+
+    public WalkableBlock getBlock(int id) {
+        return blocks[id];
+    }
+
+    public float getG(int id) {
+        return g[id];
+    }
+
+    public float getF(int id) {
+        return f[id];
+    }
+
+    public int getP(int id) {
+        return p[id];
+    }
+
+    public Path getPath(int id) {
+        return paths[id];
+    }
+
+    /**
+     * @return the hierarchy level of the edge leading to this node, 0 for block and floor edges
+     */
+    public int getLevel(int id) {
+        return levels[id];
+    }
+
+    public void set(int id, int parent, float newG, float newF, Path path) {
+        set(id, parent, newG, newF, path, 0);
+    }
+
+    public void set(int id, int parent, float newG, float newF, Path path, int level) {
+        p[id] = parent;
+        g[id] = newG;
+        f[id] = newF;
+        paths[id] = path;
+        levels[id] = (byte) level;
+    }
+
+    private void grow() {
+        int oldSize = size;
+        WalkableBlock[] oldBlocks = blocks;
+        float[] oldG = g;
+        float[] oldF = f;
+        int[] oldP = p;
+        Path[] oldPaths = paths;
+        byte[] oldLevels = levels;
+        allocate(blocks.length * 2);
+        System.arraycopy(oldBlocks, 0, blocks, 0, oldSize);
+        System.arraycopy(oldG, 0, g, 0, oldSize);
+        System.arraycopy(oldF, 0, f, 0, oldSize);
+        System.arraycopy(oldP, 0, p, 0, oldSize);
+        System.arraycopy(oldPaths, 0, paths, 0, oldSize);
+        System.arraycopy(oldLevels, 0, levels, 0, oldSize);
+        for (int id = 0; id < oldSize; id++) {
+            int slot = hash(blocks[id]) & mask;
+            while (tableStamps[slot] == generation) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = id;
+            tableStamps[slot] = generation;
+        }
+        size = oldSize;
+    }
+
+    private void allocate(int capacity) {
+        g = new float[capacity];
+        f = new float[capacity];
+        p = new int[capacity];
+        blocks = new WalkableBlock[capacity];
+        paths = new Path[capacity];
+        levels = new byte[capacity];
+        table = new int[capacity * 2];
+        tableStamps = new int[capacity * 2];
+        mask = capacity * 2 - 1;
+    }
+
+    private static int hash(WalkableBlock block) {
+        Vector3i pos = block.getBlockPosition();
+        int h = pos.x * 73856093 ^ pos.y * 19349663 ^ pos.z * 83492791;
+        return h ^ (h >>> 16);
+    }
+}
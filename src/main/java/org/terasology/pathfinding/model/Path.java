@@ -23,6 +23,20 @@ import java.util.ArrayList;
 public class Path extends ArrayList<WalkableBlock> {
     public static final Path INVALID = new Path();
 
+    private boolean partial;
+
+    /**
+     * @return true, if the path does not reach the target, but ends at the block closest to it, that the search
+     *         could reach within its budget
+     */
+    public boolean isPartial() {
+        return partial;
+    }
+
+    public void setPartial(boolean partial) {
+        this.partial = partial;
+    }
+
     public WalkableBlock getTarget() {
         if (size() == 0) {
             return null;
@@ -36,6 +50,4 @@ public class Path extends ArrayList<WalkableBlock> {
         }
         return get(0);
     }
-
-
 }
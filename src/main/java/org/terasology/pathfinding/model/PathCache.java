@@ -15,36 +15,83 @@
  */
 package org.terasology.pathfinding.model;
 
-import com.google.common.collect.Maps;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
+ * Bounded cache of paths between pairs of blocks. The least recently used paths are evicted, once the maximum
+ * number of entries is reached. Lookups may be done from several threads.
+ * <p/>
+ * Each path is indexed by the height maps it passes through, so a chunk update only drops the paths touching that
+ * chunk. Invalid paths are dropped on every update, since any change may connect their blocks. So are paths with
+ * blocks, that do not belong to a floor (and so to no height map).
+ *
  * @author synopia
  */
 public class PathCache {
-    private Map<WalkableBlock, Map<WalkableBlock, Path>> paths = Maps.newHashMap();
+    public static final long DEFAULT_MAXIMUM_SIZE = 10000;
+
+    private final Cache<Key, Path> paths;
+    private final long maximumSize;
+    private final ConcurrentMap<HeightMap, Set<Key>> keysByHeightMap = new ConcurrentHashMap<>();
+    private final Set<Key> invalidKeys = newKeySet();
+    private final AtomicLong invalidated = new AtomicLong();
+    private final AtomicLong exposed = new AtomicLong();
+
+    public PathCache() {
+        this(DEFAULT_MAXIMUM_SIZE);
+    }
+
+    /**
+     * @param maximumSize maximum number of cached paths
+     */
+    public PathCache(long maximumSize) {
+        this.maximumSize = maximumSize;
+        paths = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .recordStats()
+                .removalListener(new RemovalListener<Key, Path>() {
+                    @Override
+                    public void onRemoval(RemovalNotification<Key, Path> notification) {
+                        unindex(notification.getKey(), notification.getValue());
+                    }
+                })
+                .build();
+    }
 
     public Path getCachedPath(WalkableBlock from, WalkableBlock to) {
-        Map<WalkableBlock, Path> fromMap = paths.get(from);
-        if (fromMap != null) {
-            return fromMap.get(to);
-        }
-        return null;
+        return paths.getIfPresent(new Key(from, to));
     }
 
-    private void insert(WalkableBlock from, WalkableBlock to, Path path) {
-        Map<WalkableBlock, Path> fromMap = paths.get(from);
-        if (fromMap == null) {
-            fromMap = new HashMap<>();
-            paths.put(from, fromMap);
+    /**
+     * Partial paths are not cached, so the next request for the same blocks searches again and may get further.
+     */
+    public void insert(WalkableBlock from, WalkableBlock to, Path path) {
+        if (path != null && !path.isPartial()) {
+            Key key = new Key(from, to);
+            paths.put(key, path);
+            index(key, path);
+            // an entry evicted right away was unindexed by the removal listener before it got indexed
+            if (paths.asMap().get(key) != path) {
+                unindex(key, path);
+            }
         }
-        fromMap.put(to, path);
     }
 
+    /**
+     * Does not count as a hit or miss.
+     */
     public boolean hasPath(WalkableBlock from, WalkableBlock to) {
-        return getCachedPath(from, to) != null;
+        return paths.asMap().containsKey(new Key(from, to));
     }
 
     public Path findPath(WalkableBlock from, WalkableBlock to, Callback callback) {
@@ -52,19 +99,178 @@ public class PathCache {
         if (path == null) {
             path = callback.run(from, to);
             insert(from, to, path);
-//        insert(to, from, paths);
         }
         return path;
     }
 
     public void clear() {
-        for (Map.Entry<WalkableBlock, Map<WalkableBlock, Path>> entry : paths.entrySet()) {
-            entry.getValue().clear();
+        paths.invalidateAll();
+        keysByHeightMap.clear();
+        invalidKeys.clear();
+    }
+
+    /**
+     * Drops all paths, which pass through the given height map, and all invalid paths.
+     *
+     * @param heightMap the height map, that was updated or removed, or null to drop invalid paths only
+     */
+    public void invalidate(HeightMap heightMap) {
+        exposed.addAndGet(paths.size());
+        if (heightMap != null) {
+            Set<Key> keys = keysByHeightMap.remove(heightMap);
+            if (keys != null) {
+                invalidate(keys);
+            }
+        }
+        invalidate(invalidKeys);
+    }
+
+    private void invalidate(Set<Key> keys) {
+        for (Key key : keys) {
+            if (paths.asMap().remove(key) != null) {
+                invalidated.incrementAndGet();
+            }
         }
-        paths.clear();
+    }
+
+    /**
+     * @return the fraction of cached paths, that were kept by all invalidations so far
+     */
+    public double getSurvivalRatio() {
+        long total = exposed.get();
+        return total == 0 ? 1 : 1 - (double) invalidated.get() / total;
+    }
+
+    public long getInvalidatedCount() {
+        return invalidated.get();
+    }
+
+    private void index(Key key, Path path) {
+        if (path.isEmpty()) {
+            invalidKeys.add(key);
+            return;
+        }
+        HeightMap last = null;
+        for (int i = 0; i < path.size(); i++) {
+            HeightMap heightMap = heightMapOf(path.get(i));
+            if (heightMap == null) {
+                invalidKeys.add(key);
+            } else if (heightMap != last) {
+                keysFor(heightMap).add(key);
+                last = heightMap;
+            }
+        }
+    }
+
+    private void unindex(Key key, Path path) {
+        invalidKeys.remove(key);
+        if (path == null) {
+            return;
+        }
+        HeightMap last = null;
+        for (int i = 0; i < path.size(); i++) {
+            HeightMap heightMap = heightMapOf(path.get(i));
+            if (heightMap != null && heightMap != last) {
+                Set<Key> keys = keysByHeightMap.get(heightMap);
+                if (keys != null) {
+                    keys.remove(key);
+                }
+                last = heightMap;
+            }
+        }
+    }
+
+    private static HeightMap heightMapOf(WalkableBlock block) {
+        return block.floor != null ? block.floor.heightMap : null;
+    }
+
+    private Set<Key> keysFor(HeightMap heightMap) {
+        Set<Key> keys = keysByHeightMap.get(heightMap);
+        if (keys == null) {
+            keys = newKeySet();
+            Set<Key> existing = keysByHeightMap.putIfAbsent(heightMap, keys);
+            if (existing != null) {
+                keys = existing;
+            }
+        }
+        return keys;
+    }
+
+    private static Set<Key> newKeySet() {
+        return Collections.newSetFromMap(new ConcurrentHashMap<Key, Boolean>());
+    }
+
+    public long size() {
+        return paths.size();
+    }
+
+    /**
+     * @return number of keys in the index of invalid paths and of paths by height map
+     */
+    /* package protected */ int getIndexSize() {
+        int size = invalidKeys.size();
+        for (Set<Key> keys : keysByHeightMap.values()) {
+            size += keys.size();
+        }
+        return size;
+    }
+
+    public long getMaximumSize() {
+        return maximumSize;
+    }
+
+    public long getHitCount() {
+        return paths.stats().hitCount();
+    }
+
+    public long getMissCount() {
+        return paths.stats().missCount();
+    }
+
+    public long getEvictionCount() {
+        return paths.stats().evictionCount();
+    }
+
+    public CacheStats getStats() {
+        return paths.stats();
+    }
+
+    @Override
+    public String toString() {
+        CacheStats stats = paths.stats();
+        return "size = " + size() + "/" + maximumSize + ", hits = " + stats.hitCount() + ", misses = " + stats.missCount()
+                + ", hit rate = " + stats.hitRate() + ", evictions = " + stats.evictionCount()
+                + ", invalidated = " + invalidated.get() + ", survival ratio = " + getSurvivalRatio();
     }
 
     public interface Callback {
         Path run(WalkableBlock from, WalkableBlock to);
     }
+
+    private static final class Key {
+        private final WalkableBlock from;
+        private final WalkableBlock to;
+
+        private Key(WalkableBlock from, WalkableBlock to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return from == key.from && to == key.to;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(from) + System.identityHashCode(to);
+        }
+    }
 }
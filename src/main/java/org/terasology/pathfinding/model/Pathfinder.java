@@ -16,77 +16,340 @@
 package org.terasology.pathfinding.model;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Futures;
 import org.terasology.math.TeraMath;
 import org.terasology.math.Vector3i;
 import org.terasology.world.WorldProvider;
 
-import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
+ * Entry point for path searches on the loaded chunks.
+ * <p/>
+ * Searches may run on several threads at the same time. Loading and updating chunks is exclusive, it waits for
+ * running searches and blocks new ones until it is done. Each change increments the version of the graph.
+ *
  * @author synopia
  */
 public class Pathfinder {
+    public static final int DEFAULT_CLUSTER_LEVELS = 2;
+    public static final int DEFAULT_CLUSTER_SIZE = 4;
+    /**
+     * Maximum number of idle HAStar instances kept for resumable searches.
+     */
+    public static final int MAX_POOLED_SEARCHES = 16;
+    /**
+     * Number of times a resumable search starts over because the graph changed, before it runs to its end in one step.
+     */
+    public static final int MAX_SEARCH_RESTARTS = 3;
+
+    private static final Comparator<Vector3i> CHUNK_ORDER = new Comparator<Vector3i>() {
+        @Override
+        public int compare(Vector3i a, Vector3i b) {
+            if (a.x != b.x) {
+                return a.x < b.x ? -1 : 1;
+            }
+            if (a.y != b.y) {
+                return a.y < b.y ? -1 : 1;
+            }
+            return a.z < b.z ? -1 : (a.z == b.z ? 0 : 1);
+        }
+    };
+
     private WorldProvider world;
     private Map<Vector3i, HeightMap> heightMaps = new HashMap<>();
-    private HAStar haStar;
+    private volatile boolean bidirectional;
+    private volatile boolean partialPaths;
     private PathCache cache;
+    private ClusterHierarchy hierarchy;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final AtomicLong version = new AtomicLong();
+
+    private final Queue<HAStar> searchPool = new ConcurrentLinkedQueue<>();
+
+    private final ThreadLocal<SearchState> searchStates = new ThreadLocal<SearchState>() {
+        @Override
+        protected SearchState initialValue() {
+            return new SearchState();
+        }
+    };
 
     public Pathfinder(WorldProvider world) {
+        this(world, DEFAULT_CLUSTER_LEVELS, DEFAULT_CLUSTER_SIZE);
+    }
+
+    /**
+     * @param clusterLevels number of cluster levels above the floors of the single chunks, 0 disables clustering
+     * @param clusterSize   number of chunks (or clusters of the next lower level) along each side of a cluster
+     */
+    public Pathfinder(WorldProvider world, int clusterLevels, int clusterSize) {
+        this(world, clusterLevels, clusterSize, PathCache.DEFAULT_MAXIMUM_SIZE);
+    }
+
+    /**
+     * @param cacheSize maximum number of paths kept in the path cache
+     */
+    public Pathfinder(WorldProvider world, int clusterLevels, int clusterSize, long cacheSize) {
         this.world = world;
-        haStar = new HAStar();
-        cache = new PathCache();
+        cache = new PathCache(cacheSize);
+        hierarchy = new ClusterHierarchy(heightMaps, clusterLevels, clusterSize);
+    }
+
+    /**
+     * @param bidirectional if true, searches run from both start and target until they meet
+     */
+    public void setBidirectional(boolean bidirectional) {
+        this.bidirectional = bidirectional;
+    }
+
+    public boolean isBidirectional() {
+        return bidirectional;
+    }
+
+    /**
+     * @param partialPaths if true, searches that run out of nodes return the path to the block closest to the target,
+     *                     marked as partial, instead of Path.INVALID. Partial paths are not cached. Failed searches
+     *                     are, so the cache is cleared when this changes. Only applies to searches in one direction
+     */
+    public void setPartialPaths(boolean partialPaths) {
+        if (this.partialPaths != partialPaths) {
+            this.partialPaths = partialPaths;
+            cache.clear();
+        }
+    }
+
+    public boolean isPartialPaths() {
+        return partialPaths;
+    }
+
+    /**
+     * Builds all clusters, which are missing after chunks were loaded or updated. Otherwise this happens on demand,
+     * when the first path search needs a cluster.
+     */
+    public void updateHierarchy() {
+        lock.readLock().lock();
+        try {
+            hierarchy.update();
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
     public void clearCache() {
         cache.clear();
     }
 
+    /**
+     * @return number of changes applied to the navigation graph so far
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    public PathCache getCache() {
+        return cache;
+    }
+
     public Path findPath(final WalkableBlock target, final WalkableBlock start) {
-        return findPath(target, Arrays.asList(start)).get(0);
+        lock.readLock().lock();
+        try {
+            return cache.findPath(start, target, searchStates.get().singleSearch);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Starts a resumable search from start to target, see Search. Resumable searches always run in one direction.
+     */
+    public Search startSearch(WalkableBlock target, WalkableBlock start) {
+        return new Search(target, start);
     }
 
+    /**
+     * Finds the paths from each of the start blocks to the target. If the floor graph shows, that all starts can
+     * reach the target, each start is searched on its own, which is the fastest way for reachable starts. Otherwise
+     * all starts, whose paths are not cached, are handled by one search, which runs backwards from the target
+     * until every start is reached or the target's part of the world is exhausted, once instead of once per start.
+     */
     public List<Path> findPath(final WalkableBlock target, final List<WalkableBlock> starts) {
+        if (starts.size() == 1) {
+            return Lists.<Path>newArrayList(findPath(target, starts.get(0)));
+        }
+        lock.readLock().lock();
+        try {
+            return findPaths(target, starts, searchStates.get());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private List<Path> findPaths(WalkableBlock target, List<WalkableBlock> starts, SearchState state) {
         List<Path> result = Lists.newArrayList();
-        haStar.reset();
+        List<WalkableBlock> searchStarts = Lists.newArrayList();
         for (WalkableBlock start : starts) {
-            result.add(cache.findPath(start, target, new PathCache.Callback() {
-                @Override
-                public Path run(WalkableBlock from, WalkableBlock to) {
-                    if (from == null || to == null) {
-                        return Path.INVALID;
-                    }
-                    WalkableBlock refFrom = getBlock(from.getBlockPosition());
-                    WalkableBlock refTo = getBlock(to.getBlockPosition());
-
-                    Path path;
-                    if (haStar.run(refFrom, refTo)) {
-                        path = haStar.getPath();
-                        path.add(refFrom);
-                    } else {
-                        path = Path.INVALID;
+            Path path = start == null || target == null ? Path.INVALID : cache.getCachedPath(start, target);
+            result.add(path);
+            if (path == null) {
+                WalkableBlock refFrom = getBlock(start.getBlockPosition());
+                if (refFrom != null) {
+                    searchStarts.add(refFrom);
+                }
+            }
+        }
+        if (!searchStarts.isEmpty()) {
+            WalkableBlock refTo = getBlock(target.getBlockPosition());
+            if (refTo != null && isConnected(refTo, searchStarts)) {
+                for (int i = 0; i < result.size(); i++) {
+                    if (result.get(i) == null) {
+                        result.set(i, cache.findPath(starts.get(i), target, state.singleSearch));
                     }
-                    return path;
                 }
-            }));
+                return result;
+            }
+            state.reverseHAStar.reset();
+            if (refTo != null) {
+                state.reverseHAStar.run(refTo, searchStarts, true);
+            }
+            for (int i = 0; i < result.size(); i++) {
+                if (result.get(i) == null) {
+                    Path path = state.reverseSearchResult.run(starts.get(i), target);
+                    cache.insert(starts.get(i), target, path);
+                    result.set(i, path);
+                }
+            }
         }
         return result;
     }
 
+    /**
+     * Walks the floor graph from the floor of target, until the floors of all blocks are found.
+     *
+     * @return true, if all blocks lie on floors connected to the floor of target
+     */
+    private boolean isConnected(WalkableBlock target, List<WalkableBlock> blocks) {
+        if (target.floor == null) {
+            return false;
+        }
+        Set<Floor> missing = Sets.newHashSet();
+        for (WalkableBlock block : blocks) {
+            if (block.floor == null) {
+                return false;
+            }
+            missing.add(block.floor);
+        }
+        Set<Floor> visited = Sets.newHashSet();
+        List<Floor> open = Lists.newArrayList();
+        open.add(target.floor);
+        visited.add(target.floor);
+        while (!open.isEmpty()) {
+            Floor floor = open.remove(open.size() - 1);
+            missing.remove(floor);
+            if (missing.isEmpty()) {
+                return true;
+            }
+            for (Floor neighbor : floor.getNeighborRegions()) {
+                if (visited.add(neighbor)) {
+                    open.add(neighbor);
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Runs one search backwards from the target, which stops at the nearest of the start blocks.
+     *
+     * @return the path from the nearest start block to the target, or Path.INVALID
+     */
+    public Path findBestPath(WalkableBlock target, List<WalkableBlock> starts) {
+        lock.readLock().lock();
+        try {
+            return findBestPath(target, starts, searchStates.get());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private Path findBestPath(WalkableBlock target, List<WalkableBlock> starts, SearchState state) {
+        WalkableBlock refTo = target != null ? getBlock(target.getBlockPosition()) : null;
+        List<WalkableBlock> searchStarts = Lists.newArrayList();
+        for (WalkableBlock start : starts) {
+            WalkableBlock refFrom = start != null ? getBlock(start.getBlockPosition()) : null;
+            if (refFrom != null) {
+                searchStarts.add(refFrom);
+            }
+        }
+        if (refTo == null || searchStarts.isEmpty()) {
+            return Path.INVALID;
+        }
+        state.reverseHAStar.reset();
+        state.reverseHAStar.run(refTo, searchStarts, false);
+        for (WalkableBlock refFrom : searchStarts) {
+            if (state.reverseHAStar.isReached(refFrom)) {
+                return state.reverseSearchResult.run(refFrom, refTo);
+            }
+        }
+        return Path.INVALID;
+    }
+
     public HeightMap init(Vector3i chunkPos) {
-        clearCache();
+        lock.writeLock().lock();
+        try {
+            return init(chunkPos, null);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private HeightMap init(Vector3i chunkPos, HeightMap previous) {
         HeightMap heightMap = heightMaps.get(chunkPos);
         if (heightMap == null) {
-            heightMap = new HeightMap(world, chunkPos);
-            heightMap.update();
-            heightMaps.put(chunkPos, heightMap);
-            heightMap.connectNeighborMaps(getNeighbor(chunkPos, -1, 0), getNeighbor(chunkPos, 0, -1), getNeighbor(chunkPos, 1, 0), getNeighbor(chunkPos, 0, 1));
+            heightMap = build(chunkPos);
+            connect(chunkPos, heightMap, previous, true);
         }
         return heightMap;
     }
 
+    /**
+     * Scans the walkable blocks and floors of a chunk. Only reads the world, so it may run outside of the lock and
+     * for several chunks in parallel.
+     */
+    private HeightMap build(Vector3i chunkPos) {
+        HeightMap heightMap = new HeightMap(world, chunkPos);
+        heightMap.update();
+        return heightMap;
+    }
+
+    /**
+     * Adds a built height map to the graph and connects it to the maps of the neighbor chunks.
+     *
+     * @param updateCosts false, if the entrance costs of the map and its neighbors are rebuilt by the caller
+     */
+    private void connect(Vector3i chunkPos, HeightMap heightMap, HeightMap previous, boolean updateCosts) {
+        cache.invalidate(previous);
+        heightMaps.put(chunkPos, heightMap);
+        heightMap.connectNeighborMaps(getNeighbor(chunkPos, -1, 0), getNeighbor(chunkPos, 0, -1), getNeighbor(chunkPos, 1, 0), getNeighbor(chunkPos, 0, 1),
+                updateCosts);
+        hierarchy.invalidate(chunkPos);
+        version.incrementAndGet();
+    }
+
     private HeightMap getNeighbor(Vector3i chunkPos, int x, int z) {
         Vector3i neighborPos = new Vector3i(chunkPos);
         neighborPos.add(x, 0, z);
@@ -94,26 +357,344 @@ public class Pathfinder {
     }
 
     public HeightMap update(Vector3i chunkPos) {
+        HeightMap heightMap = build(chunkPos);
+        lock.writeLock().lock();
+        try {
+            connect(chunkPos, heightMap, remove(chunkPos), true);
+            return heightMap;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Updates several chunks at once, for example when lots of chunks are loaded after a player spawned. The height
+     * maps are built in parallel using the given executor. Connecting them to their neighbors is done afterwards,
+     * one chunk after another ordered by position, so the result doesn't depend on which map was built first. The
+     * entrance costs of all affected floors are rebuilt once, after all maps are connected.
+     *
+     * @param chunkPositions distinct positions of the chunks to update
+     * @return the new height maps, in the order of chunkPositions
+     */
+    public List<HeightMap> update(List<Vector3i> chunkPositions, ExecutorService executor) {
+        List<Future<HeightMap>> futures = Lists.newArrayList();
+        for (final Vector3i chunkPos : chunkPositions) {
+            futures.add(executor.submit(new Callable<HeightMap>() {
+                @Override
+                public HeightMap call() {
+                    return build(chunkPos);
+                }
+            }));
+        }
+        Map<Vector3i, HeightMap> built = Maps.newHashMap();
+        List<HeightMap> result = Lists.newArrayList();
+        for (int i = 0; i < chunkPositions.size(); i++) {
+            HeightMap heightMap = Futures.getUnchecked(futures.get(i));
+            built.put(chunkPositions.get(i), heightMap);
+            result.add(heightMap);
+        }
+        List<Vector3i> sorted = Lists.newArrayList(chunkPositions);
+        Collections.sort(sorted, CHUNK_ORDER);
+        lock.writeLock().lock();
+        try {
+            // maps replaced later in the loop are skipped by updateEntranceCosts(), their successors are added anyway
+            Set<HeightMap> affected = Sets.newLinkedHashSet();
+            for (Vector3i chunkPos : sorted) {
+                HeightMap heightMap = built.get(chunkPos);
+                connect(chunkPos, heightMap, remove(chunkPos), false);
+                affected.add(heightMap);
+                affected.add(getNeighbor(chunkPos, -1, 0));
+                affected.add(getNeighbor(chunkPos, 0, -1));
+                affected.add(getNeighbor(chunkPos, 1, 0));
+                affected.add(getNeighbor(chunkPos, 0, 1));
+            }
+            HeightMap.updateEntranceCosts(affected.toArray(new HeightMap[affected.size()]));
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return result;
+    }
+
+    private HeightMap rebuild(Vector3i chunkPos) {
+        return init(chunkPos, remove(chunkPos));
+    }
+
+    /**
+     * Removes the height map of a chunk from the graph. The entrance costs of the neighbors are not rebuilt, since
+     * a new map is always connected in its place right afterwards.
+     *
+     * @return the removed map, or null
+     */
+    private HeightMap remove(Vector3i chunkPos) {
         HeightMap heightMap = heightMaps.remove(chunkPos);
         if (heightMap != null) {
-            heightMap.disconnectNeighborMaps(getNeighbor(chunkPos, -1, 0), getNeighbor(chunkPos, 0, -1), getNeighbor(chunkPos, 1, 0), getNeighbor(chunkPos, 0, 1));
+            heightMap.disconnectNeighborMaps(getNeighbor(chunkPos, -1, 0), getNeighbor(chunkPos, 0, -1), getNeighbor(chunkPos, 1, 0), getNeighbor(chunkPos, 0, 1),
+                    false);
             heightMap.cells = null;
+            hierarchy.invalidate(chunkPos);
+        }
+        return heightMap;
+    }
+
+    /**
+     * Updates the chunk of a single changed block. Only the column of the block is scanned again, if the floors of
+     * the chunk can be kept. Otherwise the whole chunk is rebuilt, like update(Vector3i) does.
+     */
+    public HeightMap updateBlock(Vector3i blockPos) {
+        lock.writeLock().lock();
+        try {
+            Vector3i chunkPos = TeraMath.calcChunkPos(blockPos);
+            HeightMap heightMap = heightMaps.get(chunkPos);
+            if (heightMap != null && heightMap.updateColumn(TeraMath.calcBlockPosX(blockPos.x), TeraMath.calcBlockPosZ(blockPos.z),
+                    getNeighbor(chunkPos, -1, 0), getNeighbor(chunkPos, 0, -1), getNeighbor(chunkPos, 1, 0), getNeighbor(chunkPos, 0, 1))) {
+                hierarchy.invalidate(chunkPos);
+                cache.invalidate(heightMap);
+                version.incrementAndGet();
+                return heightMap;
+            }
+            return rebuild(chunkPos);
+        } finally {
+            lock.writeLock().unlock();
         }
-        return init(chunkPos);
     }
 
     public WalkableBlock getBlock(Vector3i pos) {
-        Vector3i chunkPos = TeraMath.calcChunkPos(pos);
-        HeightMap heightMap = heightMaps.get(chunkPos);
-        if (heightMap != null) {
-            return heightMap.getBlock(pos.x, pos.y, pos.z);
-        } else {
-            return null;
+        lock.readLock().lock();
+        try {
+            Vector3i chunkPos = TeraMath.calcChunkPos(pos);
+            HeightMap heightMap = heightMaps.get(chunkPos);
+            if (heightMap != null) {
+                return heightMap.getBlock(pos.x, pos.y, pos.z);
+            } else {
+                return null;
+            }
+        } finally {
+            lock.readLock().unlock();
         }
     }
 
+    /**
+     * Returns the walkable block at the given position or, if there is none, the next walkable block in the column,
+     * searching from two blocks above down to four blocks below. Used to find a block again after its chunk changed.
+     */
+    public WalkableBlock findBlockNear(Vector3i pos) {
+        WalkableBlock block = getBlock(pos);
+        if (block == null) {
+            Vector3i blockPos = new Vector3i(pos.x, pos.y + 2, pos.z);
+            while (blockPos.y >= pos.y - 4 && (block = getBlock(blockPos)) == null) {
+                blockPos.y--;
+            }
+        }
+        return block;
+    }
+
+    /**
+     * Prints the statistics of the searches done by the calling thread.
+     */
     @Override
     public String toString() {
-        return haStar.toString();
+        SearchState state = searchStates.get();
+        return bidirectional ? state.bidirectionalHAStar.toString() : state.haStar.toString();
+    }
+
+    private HAStar acquireSearch() {
+        HAStar search = searchPool.poll();
+        if (search == null) {
+            search = new HAStar();
+            if (hierarchy.getLevels() > 0) {
+                search.setHierarchy(hierarchy);
+            }
+        }
+        search.reset();
+        return search;
+    }
+
+    private void releaseSearch(HAStar search) {
+        if (searchPool.size() < MAX_POOLED_SEARCHES) {
+            searchPool.offer(search);
+        }
+    }
+
+    /**
+     * A path search, that runs in several steps, so a scheduler can interleave long and short searches. Between two
+     * steps the search holds no lock, so the graph may change meanwhile. In this case the search starts over on the
+     * new graph with the blocks at or near the start and target positions (see findBlockNear()). After
+     * MAX_SEARCH_RESTARTS restarts, the search runs to its end in one step, so constant changes to the world cannot
+     * starve it.
+     * <p/>
+     * A search holds its own HAStar until it is done or canceled. Found paths are put into the path cache.
+     */
+    public final class Search {
+        private final Vector3i startPos;
+        private final Vector3i targetPos;
+        private HAStar haStar;
+        private WalkableBlock from;
+        private WalkableBlock to;
+        private long searchVersion;
+        private int restarts;
+        private Path path;
+
+        private Search(WalkableBlock target, WalkableBlock start) {
+            startPos = start != null ? start.getBlockPosition() : null;
+            targetPos = target != null ? target.getBlockPosition() : null;
+        }
+
+        /**
+         * Continues the search for up to the given number of expanded nodes or the given time.
+         *
+         * @return true, if the search is done, see getPath()
+         */
+        public boolean step(int maxExpansions, long maxNanos) {
+            if (path != null) {
+                return true;
+            }
+            lock.readLock().lock();
+            try {
+                if (haStar == null || searchVersion != version.get()) {
+                    if (haStar != null) {
+                        restarts++;
+                    }
+                    if (!restart()) {
+                        return true;
+                    }
+                }
+                HAStar.Status status = restarts >= MAX_SEARCH_RESTARTS
+                        ? haStar.step(Integer.MAX_VALUE, Long.MAX_VALUE) : haStar.step(maxExpansions, maxNanos);
+                if (status == HAStar.Status.RUNNING) {
+                    return false;
+                }
+                path = status == HAStar.Status.FOUND ? haStar.getPath() : haStar.getPartialPath();
+                if (path != null) {
+                    path.add(from);
+                } else {
+                    path = Path.INVALID;
+                }
+                cache.insert(from, to, path);
+                cancel();
+                return true;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        /**
+         * @return false, if the search is done right away
+         */
+        private boolean restart() {
+            from = startPos != null ? findBlockNear(startPos) : null;
+            to = targetPos != null ? findBlockNear(targetPos) : null;
+            if (from == null || to == null) {
+                path = Path.INVALID;
+                cancel();
+                return false;
+            }
+            Path cached = cache.getCachedPath(from, to);
+            if (cached != null) {
+                path = cached;
+                cancel();
+                return false;
+            }
+            if (haStar == null) {
+                haStar = acquireSearch();
+            } else {
+                haStar.reset();
+            }
+            haStar.setPartialPaths(partialPaths);
+            haStar.begin(from, to);
+            searchVersion = version.get();
+            return true;
+        }
+
+        public boolean isDone() {
+            return path != null;
+        }
+
+        /**
+         * @return the found path, Path.INVALID if there is none, or null while the search is not done
+         */
+        public Path getPath() {
+            return path;
+        }
+
+        /**
+         * Stops the search and releases its resources. Steps after this start the search over.
+         */
+        public void cancel() {
+            if (haStar != null) {
+                releaseSearch(haStar);
+                haStar = null;
+            }
+        }
+    }
+
+    /**
+     * Search state of one thread. Searches only read the navigation graph, so any number of threads may search at
+     * the same time, each using its own HAStar instances (with their heaps, node pools and local caches). Changes
+     * to the graph wait until all running searches are done, see the lock of the Pathfinder.
+     */
+    private final class SearchState {
+        private final HAStar haStar = new HAStar();
+        private final BidirectionalHAStar bidirectionalHAStar = new BidirectionalHAStar();
+        private final HAStar reverseHAStar = new HAStar();
+
+        private final PathCache.Callback singleSearch = new PathCache.Callback() {
+            @Override
+            public Path run(WalkableBlock from, WalkableBlock to) {
+                if (from == null || to == null) {
+                    return Path.INVALID;
+                }
+                WalkableBlock refFrom = getBlock(from.getBlockPosition());
+                WalkableBlock refTo = getBlock(to.getBlockPosition());
+                if (refFrom == null || refTo == null) {
+                    return Path.INVALID;
+                }
+
+                Path path;
+                if (bidirectional) {
+                    bidirectionalHAStar.reset();
+                    if (bidirectionalHAStar.run(refFrom, refTo)) {
+                        path = bidirectionalHAStar.getPath();
+                        path.add(refFrom);
+                    } else {
+                        path = Path.INVALID;
+                    }
+                } else {
+                    haStar.reset();
+                    haStar.setPartialPaths(partialPaths);
+                    path = haStar.run(refFrom, refTo) ? haStar.getPath() : haStar.getPartialPath();
+                    if (path != null) {
+                        path.add(refFrom);
+                    } else {
+                        path = Path.INVALID;
+                    }
+                }
+                return path;
+            }
+        };
+
+        /**
+         * Reads the result of the last backward search for one start block.
+         */
+        private final PathCache.Callback reverseSearchResult = new PathCache.Callback() {
+            @Override
+            public Path run(WalkableBlock from, WalkableBlock to) {
+                WalkableBlock refFrom = getBlock(from.getBlockPosition());
+                if (refFrom == null || !reverseHAStar.isReached(refFrom)) {
+                    return Path.INVALID;
+                }
+                Path path = reverseHAStar.getReversePath(refFrom);
+                path.add(refFrom);
+                return path;
+            }
+        };
+
+        private SearchState() {
+            reverseHAStar.setReverse(true);
+            if (hierarchy.getLevels() > 0) {
+                haStar.setHierarchy(hierarchy);
+                bidirectionalHAStar.setHierarchy(hierarchy);
+                reverseHAStar.setHierarchy(hierarchy);
+            }
+        }
     }
 }
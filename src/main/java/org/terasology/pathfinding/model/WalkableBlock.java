@@ -23,6 +23,11 @@ import org.terasology.math.Vector3i;
 public class WalkableBlock {
     public WalkableBlock[] neighbors = new WalkableBlock[8];
     public Floor floor;
+    /**
+     * Dense index of this block inside its height map, its position in HeightMap.walkableBlocks, see
+     * HeightMap.indexBlocks().
+     */
+    public int id = -1;
     private Vector3i position;
 
     public WalkableBlock(int x, int z, int height) {
@@ -15,49 +15,202 @@
  */
 package org.terasology.pathfinding.model;
 
+import com.google.common.collect.Lists;
 import org.terasology.math.Vector3i;
 import org.terasology.world.WorldProvider;
-import org.terasology.world.block.Block;
+
+import java.util.List;
 
 /**
  * @author synopia
  */
 public class WalkableBlockFinder {
     private WorldProvider world;
+    private ChunkSnapshot snapshot;
 
     public WalkableBlockFinder(WorldProvider world) {
         this.world = world;
     }
 
+    /**
+     * Scans a whole chunk on a snapshot of it, see ChunkSnapshot.
+     */
     public void findWalkableBlocks(HeightMap map) {
+        findWalkableBlocks(map, new ChunkSnapshot(world, map.worldPos));
+    }
+
+    public void findWalkableBlocks(HeightMap map, ChunkSnapshot chunk) {
+        snapshot = chunk;
+        try {
+            scanColumns(map, chunk);
+            map.indexBlocks();
+            connectSlices(map, chunk);
+        } finally {
+            snapshot = null;
+        }
+    }
+
+    /**
+     * Finds the walkable blocks of a chunk by visiting all blocks, slice by slice from top to bottom. A solid block
+     * with at least two penetrable blocks above is walkable. Replaced by scanColumns(), kept for comparison.
+     */
+    /* package protected */ void scanSlices(HeightMap map, ChunkSnapshot chunk) {
         int[] airMap = new int[HeightMap.SIZE_X * HeightMap.SIZE_Z];
-        Vector3i blockPos = new Vector3i();
-        map.walkableBlocks.clear();
         Vector3i worldPos = map.worldPos;
         for (int y = HeightMap.SIZE_Y - 1; y >= 0; y--) {
             for (int z = 0; z < HeightMap.SIZE_Z; z++) {
                 for (int x = 0; x < HeightMap.SIZE_X; x++) {
-                    blockPos.set(x + worldPos.x, y + worldPos.y, z + worldPos.z);
-                    Block block = world.getBlock(blockPos);
                     int offset = x + z * HeightMap.SIZE_Z;
-                    if (block.isPenetrable()) {
+                    if (chunk.isPenetrable(x, y, z)) {
                         airMap[offset]++;
                     } else {
                         if (airMap[offset] >= 2) {
-                            WalkableBlock walkableBlock = new WalkableBlock(blockPos.x, blockPos.z, blockPos.y);
+                            WalkableBlock walkableBlock = new WalkableBlock(x + worldPos.x, z + worldPos.z, y + worldPos.y);
                             map.cells[offset].addBlock(walkableBlock);
-                            map.walkableBlocks.add(walkableBlock);
                         }
                         airMap[offset] = 0;
                     }
                 }
             }
         }
+    }
+
+    /**
+     * Same as scanSlices(), using the runs of each column. Only the top block of a solid run can be walkable, if the
+     * penetrable run above it is at least two blocks high.
+     */
+    /* package protected */ void scanColumns(HeightMap map, ChunkSnapshot chunk) {
+        int[] runs = new int[HeightMap.SIZE_Y];
+        Vector3i worldPos = map.worldPos;
+        for (int z = 0; z < HeightMap.SIZE_Z; z++) {
+            for (int x = 0; x < HeightMap.SIZE_X; x++) {
+                int offset = x + z * HeightMap.SIZE_Z;
+                int count = chunk.getRuns(x, z, runs);
+                boolean penetrable = chunk.isPenetrable(x, HeightMap.SIZE_Y - 1, z);
+                for (int i = 1; i < count; i++) {
+                    penetrable = !penetrable;
+                    if (!penetrable && runs[i - 1] - runs[i] >= 2) {
+                        WalkableBlock walkableBlock = new WalkableBlock(x + worldPos.x, z + worldPos.z, runs[i] + worldPos.y);
+                        map.cells[offset].addBlock(walkableBlock);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Scans a single column of the map, the same way findWalkableBlocks does.
+     *
+     * @return the heights of all walkable blocks in the column, lowest first
+     */
+    public List<Integer> findWalkableHeights(HeightMap map, int x, int z) {
+        List<Integer> heights = Lists.newArrayList();
+        Vector3i blockPos = new Vector3i();
+        Vector3i worldPos = map.worldPos;
+        int air = 0;
+        for (int y = HeightMap.SIZE_Y - 1; y >= 0; y--) {
+            blockPos.set(x + worldPos.x, y + worldPos.y, z + worldPos.z);
+            if (world.getBlock(blockPos).isPenetrable()) {
+                air++;
+            } else {
+                if (air >= 2) {
+                    heights.add(0, blockPos.y);
+                }
+                air = 0;
+            }
+        }
+        return heights;
+    }
+
+    /**
+     * Connects all walkable blocks of the map, a whole slice and direction at a time, using the bit planes of the
+     * snapshot (see ChunkSnapshot.findConnections()). Gives the same neighbors as findNeighbors().
+     */
+    /* package protected */ void connectSlices(HeightMap map, ChunkSnapshot chunk) {
+        map.borderBlocks.clear();
+        for (int z = 0; z < HeightMap.SIZE_Z; z++) {
+            for (int x = 0; x < HeightMap.SIZE_X; x++) {
+                if (x == 0 || z == 0 || x == HeightMap.SIZE_X - 1 || z == HeightMap.SIZE_Z - 1) {
+                    map.borderBlocks.addAll(map.cells[x + z * HeightMap.SIZE_Z].blocks);
+                }
+            }
+        }
+        long[] connections = new long[ChunkSnapshot.WORDS_PER_SLICE];
+        int[] cursors = new int[map.cells.length];
+        for (int y = 0; y < HeightMap.SIZE_Y; y++) {
+            if (!chunk.hasWalkable(y)) {
+                continue;
+            }
+            for (int direction = 0; direction < HeightMap.DIRECTIONS.length; direction++) {
+                boolean diagonal = (direction % 2) == 1;
+                int minDiff = diagonal || y == 0 ? 0 : -1;
+                int maxDiff = diagonal || y == HeightMap.SIZE_Y - 1 ? 0 : 1;
+                for (int heightDiff = minDiff; heightDiff <= maxDiff; heightDiff++) {
+                    if (chunk.findConnections(y, direction, heightDiff, connections)) {
+                        connect(map, y, direction, heightDiff, connections, cursors);
+                    }
+                }
+            }
+        }
+    }
+
+    private void connect(HeightMap map, int y, int direction, int heightDiff, long[] connections, int[] cursors) {
+        int offsetDiff = HeightMap.DIRECTIONS[direction][0] + HeightMap.DIRECTIONS[direction][1] * HeightMap.SIZE_Z;
+        int height = y + map.worldPos.y;
+        for (int word = 0; word < connections.length; word++) {
+            long bits = connections[word];
+            while (bits != 0) {
+                int offset = (word << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                WalkableBlock block = getBlock(map, offset, height, height - 1, cursors);
+                WalkableBlock neighbor = getBlock(map, offset + offsetDiff, height + heightDiff, height - 1, cursors);
+                if (block != null && neighbor != null) {
+                    block.neighbors[direction] = neighbor;
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds a block of a cell, starting at the cursor of the cell. Since slices are connected bottom up, the cursor
+     * is moved to the first block at or above the lowest height still needed.
+     */
+    private WalkableBlock getBlock(HeightMap map, int offset, int height, int lowest, int[] cursors) {
+        List<WalkableBlock> blocks = map.cells[offset].blocks;
+        int index = cursors[offset];
+        while (index < blocks.size() && blocks.get(index).height() < lowest) {
+            index++;
+        }
+        cursors[offset] = index;
+        for (; index < blocks.size(); index++) {
+            int blockHeight = blocks.get(index).height();
+            if (blockHeight == height) {
+                return blocks.get(index);
+            }
+            if (blockHeight > height) {
+                break;
+            }
+        }
+        return null;
+    }
 
-        findNeighbors(map);
+    /**
+     * Same as findNeighbors(HeightMap), reading from the given snapshot.
+     */
+    /* package protected */ void findNeighbors(HeightMap map, ChunkSnapshot chunk) {
+        snapshot = chunk;
+        try {
+            findNeighbors(map);
+        } finally {
+            snapshot = null;
+        }
     }
 
-    private void findNeighbors(HeightMap map) {
+    /**
+     * Connects all walkable blocks of the map, one block at a time, using canConnect(). Replaced by connectSlices(),
+     * kept for comparison.
+     */
+    /* package protected */ void findNeighbors(HeightMap map) {
         map.borderBlocks.clear();
         for (int z = 0; z < HeightMap.SIZE_Z; z++) {
             for (int x = 0; x < HeightMap.SIZE_X; x++) {
@@ -91,29 +244,44 @@ public class WalkableBlockFinder {
     }
 
     private void connectBlocks(WalkableBlock block, WalkableBlock neighborBlock, int direction) {
+        if (canConnect(block, neighborBlock, direction)) {
+            block.neighbors[direction] = neighborBlock;
+        }
+    }
+
+    /**
+     * @return true, if block can walk to neighborBlock, which lies in the given direction in the same height map
+     */
+    public boolean canConnect(WalkableBlock block, WalkableBlock neighborBlock, int direction) {
         int heightDiff = block.height() - neighborBlock.height();
         boolean diagonal = (direction % 2) == 1;
         if (heightDiff == 0) {
             if (!diagonal) {
-                block.neighbors[direction] = neighborBlock;
+                return true;
             } else {
                 int dx = block.x() - neighborBlock.x();
                 int dz = block.z() - neighborBlock.z();
-                boolean free1 = world.getBlock(block.x() - dx, block.height() + 1, block.z()).isPenetrable();
-                free1 &= world.getBlock(block.x() - dx, block.height() + 2, block.z()).isPenetrable();
-                boolean free2 = world.getBlock(block.x(), block.height() + 1, block.z() - dz).isPenetrable();
-                free2 &= world.getBlock(block.x(), block.height() + 2, block.z() - dz).isPenetrable();
-                if (free1 && free2) {
-                    block.neighbors[direction] = neighborBlock;
-                }
+                boolean free1 = isPenetrable(block.x() - dx, block.height() + 1, block.z());
+                free1 &= isPenetrable(block.x() - dx, block.height() + 2, block.z());
+                boolean free2 = isPenetrable(block.x(), block.height() + 1, block.z() - dz);
+                free2 &= isPenetrable(block.x(), block.height() + 2, block.z() - dz);
+                return free1 && free2;
             }
         } else if (Math.abs(heightDiff) < 2 && !diagonal) {
             WalkableBlock lower = heightDiff < 0 ? block : neighborBlock;
-            Block jumpCheck = world.getBlock(lower.x(), lower.height() + 3, lower.z());
-            if (jumpCheck.isPenetrable()) {
-                block.neighbors[direction] = neighborBlock;
-            }
+            return isPenetrable(lower.x(), lower.height() + 3, lower.z());
+        }
+        return false;
+    }
+
+    /**
+     * Reads from the snapshot of the chunk while scanning it, otherwise from the world.
+     */
+    private boolean isPenetrable(int x, int y, int z) {
+        if (snapshot != null && snapshot.contains(x, y, z)) {
+            return snapshot.isPenetrableAt(x, y, z);
         }
+        return world.getBlock(x, y, z).isPenetrable();
     }
 
 }
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2013 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.pathfinding.componentSystem;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.terasology.math.Vector3i;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author synopia
+ */
+public class ChunkUpdateQueueTest {
+    @Test
+    public void testCoalesce() throws InterruptedException {
+        ChunkUpdateQueue queue = new ChunkUpdateQueue();
+        queue.offerBlock(new Vector3i(1, 50, 1));
+        queue.offerBlock(new Vector3i(1, 51, 1));
+        queue.offerBlock(new Vector3i(2, 50, 1));
+        queue.offerBlock(new Vector3i(17, 50, 1));
+
+        Assert.assertEquals(2, queue.getDepth());
+        Assert.assertEquals(4, queue.getOfferedCount());
+        Assert.assertEquals(1, queue.getCoalescedCount());
+
+        ChunkUpdateQueue.ChunkUpdate update = queue.poll(0, TimeUnit.SECONDS);
+        Assert.assertEquals(new Vector3i(0, 0, 0), update.getChunkPos());
+        Assert.assertFalse(update.isFullUpdate());
+        Assert.assertEquals(2, update.getBlockPositions().size());
+
+        queue.offerChunk(new Vector3i(1, 0, 0));
+        Assert.assertEquals(1, queue.getDepth());
+        Assert.assertEquals(2, queue.getCoalescedCount());
+        update = queue.poll(0, TimeUnit.SECONDS);
+        Assert.assertEquals(new Vector3i(1, 0, 0), update.getChunkPos());
+        Assert.assertTrue(update.isFullUpdate());
+        Assert.assertTrue(update.getBlockPositions().isEmpty());
+
+        Assert.assertTrue(queue.isEmpty());
+        Assert.assertNull(queue.poll(0, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testTooManyColumns() throws InterruptedException {
+        ChunkUpdateQueue queue = new ChunkUpdateQueue();
+        for (int i = 0; i <= ChunkUpdateQueue.MAX_COLUMNS; i++) {
+            queue.offerBlock(new Vector3i(i % 16, 50, i / 16));
+        }
+        Assert.assertEquals(1, queue.getDepth());
+        Assert.assertEquals(ChunkUpdateQueue.MAX_COLUMNS, queue.getCoalescedCount());
+        Assert.assertTrue(queue.poll(0, TimeUnit.SECONDS).isFullUpdate());
+    }
+
+    @Test
+    public void testFocus() throws InterruptedException {
+        ChunkUpdateQueue queue = new ChunkUpdateQueue();
+        for (int i = 0; i < 5; i++) {
+            queue.offerChunk(new Vector3i(i, 0, 0));
+        }
+        queue.focus(new Vector3i(3, 0, 0));
+        Assert.assertEquals(new Vector3i(3, 0, 0), queue.poll(0, TimeUnit.SECONDS).getChunkPos());
+        Assert.assertEquals(new Vector3i(2, 0, 0), queue.poll(0, TimeUnit.SECONDS).getChunkPos());
+        Assert.assertEquals(new Vector3i(4, 0, 0), queue.poll(0, TimeUnit.SECONDS).getChunkPos());
+        Assert.assertEquals(new Vector3i(1, 0, 0), queue.poll(0, TimeUnit.SECONDS).getChunkPos());
+        Assert.assertEquals(5, queue.getMaxDepth());
+    }
+
+    @Test
+    public void testPollFullUpdates() {
+        ChunkUpdateQueue queue = new ChunkUpdateQueue();
+        queue.offerChunk(new Vector3i(0, 0, 0));
+        queue.offerBlock(new Vector3i(20, 50, 0));
+        queue.offerChunk(new Vector3i(2, 0, 0));
+        queue.offerChunk(new Vector3i(3, 0, 0));
+        queue.focus(new Vector3i(3, 0, 0));
+
+        List<ChunkUpdateQueue.ChunkUpdate> updates = queue.pollFullUpdates(2);
+        Assert.assertEquals(2, updates.size());
+        Assert.assertEquals(new Vector3i(3, 0, 0), updates.get(0).getChunkPos());
+        Assert.assertEquals(new Vector3i(2, 0, 0), updates.get(1).getChunkPos());
+        Assert.assertEquals(2, queue.getDepth());
+        Assert.assertEquals(1, queue.pollFullUpdates(2).size());
+        Assert.assertEquals(1, queue.getDepth());
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2013 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.pathfinding.componentSystem;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author synopia
+ */
+public class LatencyRecorderTest {
+    @Test
+    public void testPercentiles() {
+        LatencyRecorder recorder = new LatencyRecorder(100);
+        Assert.assertEquals(0, recorder.getPercentile(50), 0.001);
+        for (int i = 100; i >= 1; i--) {
+            recorder.record(i * 1000 * 1000L);
+        }
+        Assert.assertEquals(100, recorder.getCount());
+        Assert.assertEquals(50, recorder.getPercentile(50), 0.001);
+        Assert.assertEquals(90, recorder.getPercentile(90), 0.001);
+        Assert.assertEquals(100, recorder.getPercentile(100), 0.001);
+        Assert.assertEquals(1, recorder.getPercentile(0), 0.001);
+    }
+
+    @Test
+    public void testRingBuffer() {
+        LatencyRecorder recorder = new LatencyRecorder(10);
+        for (int i = 0; i < 10; i++) {
+            recorder.record(1000 * 1000 * 1000L);
+        }
+        for (int i = 0; i < 10; i++) {
+            recorder.record(1000 * 1000L);
+        }
+        Assert.assertEquals(20, recorder.getCount());
+        Assert.assertEquals(1, recorder.getPercentile(99), 0.001);
+    }
+}
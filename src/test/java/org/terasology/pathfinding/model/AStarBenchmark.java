@@ -0,0 +1,80 @@
+/*
+ * Copyright 2013 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.pathfinding.model;
+
+import java.util.Random;
+
+/**
+ * Runs frames of 256 AStar queries between random cells of an open 16x16 floor, reusing one AStar instance.
+ * Run as a plain java application, after a warm up phase the average time per frame is printed.
+ *
+ * @author synopia
+ */
+public class AStarBenchmark {
+    private static final int QUERIES_PER_FRAME = 256;
+    private static final int WARMUP_FRAMES = 200;
+    private static final int FRAMES = 1000;
+
+    private final BitMap map = new BitMap();
+    private final AStar aStar;
+    private final int[] starts = new int[QUERIES_PER_FRAME];
+    private final int[] ends = new int[QUERIES_PER_FRAME];
+    private int found;
+
+    public AStarBenchmark() {
+        Random random = new Random(1);
+        for (int i = 0; i < map.getNumberOfNodes(); i++) {
+            if (random.nextInt(10) > 0) {
+                map.setPassable(i);
+            }
+        }
+        for (int i = 0; i < QUERIES_PER_FRAME; i++) {
+            starts[i] = randomPassable(random);
+            ends[i] = randomPassable(random);
+        }
+        aStar = new AStar(map);
+    }
+
+    private int randomPassable(Random random) {
+        int offset;
+        do {
+            offset = random.nextInt(map.getNumberOfNodes());
+        } while (!map.isPassable(offset));
+        return offset;
+    }
+
+    public long runFrame() {
+        long time = System.nanoTime();
+        for (int i = 0; i < QUERIES_PER_FRAME; i++) {
+            if (aStar.run(starts[i], ends[i])) {
+                found++;
+            }
+        }
+        return System.nanoTime() - time;
+    }
+
+    public static void main(String[] args) {
+        AStarBenchmark benchmark = new AStarBenchmark();
+        for (int i = 0; i < WARMUP_FRAMES; i++) {
+            benchmark.runFrame();
+        }
+        long total = 0;
+        for (int i = 0; i < FRAMES; i++) {
+            total += benchmark.runFrame();
+        }
+        System.out.println(QUERIES_PER_FRAME + " queries: " + total / FRAMES / 1000 + " us/frame (" + benchmark.found + " found)");
+    }
+}
@@ -91,6 +91,24 @@ public class AStarTest {
         );
     }
 
+    @Test
+    public void reuse() {
+        BitMap map = new BitMap();
+        for (int y = 0; y < 4; y++) {
+            for (int x = 0; x < 4; x++) {
+                map.setPassable(x, y);
+            }
+        }
+        AStar sut = new AStar(map);
+        Assert.assertTrue(sut.run(map.offset(0, 0), map.offset(3, 3)));
+        Assert.assertEquals(4, sut.getPath().size());
+        Assert.assertTrue(sut.getG(map.offset(3, 3)) > 0);
+
+        Assert.assertTrue(sut.run(map.offset(3, 0), map.offset(2, 0)));
+        Assert.assertEquals(2, sut.getPath().size());
+        Assert.assertEquals(0, sut.getG(map.offset(3, 3)), 0);
+    }
+
     private void assertAStar(String... data) {
         BitMap map = new BitMap();
         int start = -1;
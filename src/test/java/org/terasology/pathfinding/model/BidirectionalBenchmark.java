@@ -0,0 +1,104 @@
+/*
+ * Copyright 2013 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.pathfinding.model;
+
+import com.google.common.collect.Lists;
+import org.terasology.math.Vector3i;
+import org.terasology.pathfinding.PathfinderTestGenerator;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares forward and bidirectional HAStar on random queries across a 8x8 chunk PathfinderTestGenerator world.
+ * Run as a plain java application, the expanded nodes and the average time per query of both variants are printed.
+ *
+ * @author synopia
+ */
+public class BidirectionalBenchmark {
+    private static final int CHUNKS = 8;
+    private static final int QUERIES = 200;
+    private static final int WARMUP_ROUNDS = 3;
+
+    private final List<WalkableBlock> starts = Lists.newArrayList();
+    private final List<WalkableBlock> ends = Lists.newArrayList();
+    private final HAStar haStar = new HAStar();
+    private final BidirectionalHAStar bidirectionalHAStar = new BidirectionalHAStar();
+    private long expanded;
+    private int found;
+
+    public BidirectionalBenchmark() {
+        TestHelper helper = new TestHelper();
+        helper.init(new PathfinderTestGenerator(true));
+        Pathfinder pathfinder = new Pathfinder(helper.world);
+        List<WalkableBlock> blocks = Lists.newArrayList();
+        for (int x = 0; x < CHUNKS; x++) {
+            for (int z = 0; z < CHUNKS; z++) {
+                blocks.addAll(pathfinder.init(new Vector3i(x, 0, z)).walkableBlocks);
+            }
+        }
+        Random random = new Random(1);
+        for (int i = 0; i < QUERIES; i++) {
+            starts.add(blocks.get(random.nextInt(blocks.size())));
+            ends.add(blocks.get(random.nextInt(blocks.size())));
+        }
+    }
+
+    public long runForward() {
+        expanded = 0;
+        found = 0;
+        long time = System.nanoTime();
+        for (int i = 0; i < QUERIES; i++) {
+            haStar.reset();
+            if (haStar.run(starts.get(i), ends.get(i))) {
+                haStar.getPath();
+                found++;
+            }
+            expanded += haStar.getExpandedNodes();
+        }
+        return System.nanoTime() - time;
+    }
+
+    public long runBidirectional() {
+        expanded = 0;
+        found = 0;
+        long time = System.nanoTime();
+        for (int i = 0; i < QUERIES; i++) {
+            bidirectionalHAStar.reset();
+            if (bidirectionalHAStar.run(starts.get(i), ends.get(i))) {
+                bidirectionalHAStar.getPath();
+                found++;
+            }
+            expanded += bidirectionalHAStar.getExpandedNodes();
+        }
+        return System.nanoTime() - time;
+    }
+
+    private void print(String name, long time) {
+        System.out.println(name + ": " + expanded / QUERIES + " expanded nodes/query, " + time / QUERIES / 1000
+                + " us/query (" + found + " of " + QUERIES + " found)");
+    }
+
+    public static void main(String[] args) {
+        BidirectionalBenchmark benchmark = new BidirectionalBenchmark();
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            benchmark.runForward();
+            benchmark.runBidirectional();
+        }
+        benchmark.print("forward", benchmark.runForward());
+        benchmark.print("bidirectional", benchmark.runBidirectional());
+    }
+}
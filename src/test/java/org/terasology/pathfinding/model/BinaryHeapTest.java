@@ -0,0 +1,48 @@
+/*
+ * Copyright 2013 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.pathfinding.model;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Comparator;
+
+/**
+ * @author synopia
+ */
+public class BinaryHeapTest {
+    @Test
+    public void testClearAfterRemovingLast() {
+        BinaryHeap heap = new BinaryHeap(new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return o2.compareTo(o1);
+            }
+        });
+        heap.insert(5);
+        Assert.assertEquals(5, heap.removeMin());
+        Assert.assertFalse(heap.contains(5));
+        heap.clear();
+        Assert.assertFalse(heap.contains(5));
+
+        heap.insert(7);
+        heap.insert(3);
+        heap.clear();
+        Assert.assertFalse(heap.contains(7));
+        Assert.assertFalse(heap.contains(3));
+        Assert.assertTrue(heap.isEmpty());
+    }
+}
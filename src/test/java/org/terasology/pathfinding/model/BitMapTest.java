@@ -18,6 +18,8 @@ package org.terasology.pathfinding.model;
 import junit.framework.Assert;
 import org.junit.Test;
 
+import java.util.Arrays;
+
 /**
  * @author synopia
  */
@@ -55,4 +57,42 @@ public class BitMapTest {
         Assert.assertTrue(r1.overlap(r2));
         Assert.assertTrue(r2.overlap(r1));
     }
+
+    @Test
+    public void testMerge() {
+        BitMap r1 = new BitMap();
+        BitMap r2 = new BitMap();
+
+        r1.setPassable(0, 0);
+        r1.setPassable(15, 3);
+        r2.setPassable(15, 3);
+        r2.setPassable(4, 15);
+        r1.merge(r2);
+
+        Assert.assertEquals(3, r1.cardinality());
+        Assert.assertTrue(r1.isPassable(4, 15));
+        Assert.assertTrue(r1.overlap(r2));
+        r1.clear();
+        Assert.assertEquals(0, r1.cardinality());
+        Assert.assertFalse(r1.overlap(r2));
+    }
+
+    @Test
+    public void testBounds() {
+        int[] bounds = new int[4];
+        BitMap r1 = new BitMap();
+        Assert.assertFalse(r1.getBounds(bounds));
+
+        r1.setPassable(7, 2);
+        r1.setPassable(3, 9);
+        r1.setPassable(12, 4);
+        Assert.assertTrue(r1.getBounds(bounds));
+        Assert.assertTrue(Arrays.equals(new int[]{3, 2, 12, 9}, bounds));
+
+        BitMap r2 = new BitMap(10, 10);
+        r2.setPassable(9, 1);
+        r2.setPassable(2, 6);
+        Assert.assertTrue(r2.getBounds(bounds));
+        Assert.assertTrue(Arrays.equals(new int[]{2, 1, 9, 6}, bounds));
+    }
 }
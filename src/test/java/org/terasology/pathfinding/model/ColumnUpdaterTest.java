@@ -0,0 +1,172 @@
+/*
+ * Copyright 2013 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.pathfinding.model;
+
+import com.google.common.collect.Sets;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.terasology.math.Vector3i;
+import org.terasology.pathfinding.PathfinderTestGenerator;
+
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * @author synopia
+ */
+public class ColumnUpdaterTest {
+    private static final int CHUNKS = 3;
+    private TestHelper helper;
+    private Pathfinder pathfinder;
+
+    @Before
+    public void setup() {
+        helper = new TestHelper();
+        helper.init(new PathfinderTestGenerator(true));
+        pathfinder = new Pathfinder(helper.world);
+        for (int x = 0; x < CHUNKS; x++) {
+            for (int z = 0; z < CHUNKS; z++) {
+                pathfinder.init(new Vector3i(x, 0, z));
+            }
+        }
+    }
+
+    @Test
+    public void testDig() {
+        HeightMap map = pathfinder.getBlock(new Vector3i(20, 50, 20)).floor.heightMap;
+        helper.setAir(20, 50, 20);
+        Assert.assertSame(map, pathfinder.updateBlock(new Vector3i(20, 50, 20)));
+        Assert.assertNull(pathfinder.getBlock(new Vector3i(20, 50, 20)));
+        Assert.assertNotNull(pathfinder.getBlock(new Vector3i(20, 45, 20)));
+        assertSameAsRebuild();
+
+        helper.setGround(20, 50, 20);
+        Assert.assertSame(map, pathfinder.updateBlock(new Vector3i(20, 50, 20)));
+        assertSameAsRebuild();
+    }
+
+    @Test
+    public void testSplitFloor() {
+        HeightMap map = pathfinder.getBlock(new Vector3i(20, 50, 20)).floor.heightMap;
+        for (int z = 16; z < 31; z++) {
+            buildWall(20, z);
+            Assert.assertSame(map, pathfinder.updateBlock(new Vector3i(20, 51, z)));
+        }
+        // the last block of the wall cuts the floor in two, so the chunk is built again
+        buildWall(20, 31);
+        Assert.assertNotSame(map, pathfinder.updateBlock(new Vector3i(20, 51, 31)));
+        Assert.assertNotSame(pathfinder.getBlock(new Vector3i(19, 50, 20)).floor, pathfinder.getBlock(new Vector3i(21, 50, 20)).floor);
+        assertSameAsRebuild();
+    }
+
+    private void buildWall(int x, int z) {
+        for (int y = 51; y < 54; y++) {
+            helper.setGround(x, y, z);
+        }
+    }
+
+    @Test
+    public void testRandomChanges() {
+        Random random = new Random(42);
+        for (int i = 0; i < 40; i++) {
+            int x = random.nextInt(CHUNKS * HeightMap.SIZE_X);
+            int y = 44 + random.nextInt(10);
+            int z = random.nextInt(CHUNKS * HeightMap.SIZE_Z);
+            if (random.nextBoolean()) {
+                helper.setAir(x, y, z);
+            } else {
+                helper.setGround(x, y, z);
+            }
+            pathfinder.updateBlock(new Vector3i(x, y, z));
+            assertSameAsRebuild();
+        }
+    }
+
+    /**
+     * The walkable blocks and their connections must be the same as after building all chunks again, and each floor
+     * must be connected.
+     */
+    private void assertSameAsRebuild() {
+        Pathfinder rebuild = new Pathfinder(helper.world);
+        for (int cx = 0; cx < CHUNKS; cx++) {
+            for (int cz = 0; cz < CHUNKS; cz++) {
+                rebuild.init(new Vector3i(cx, 0, cz));
+            }
+        }
+        for (int cx = 0; cx < CHUNKS; cx++) {
+            for (int cz = 0; cz < CHUNKS; cz++) {
+                HeightMap expected = rebuild.getBlock(findBlock(rebuild, cx, cz)).floor.heightMap;
+                HeightMap actual = pathfinder.getBlock(findBlock(pathfinder, cx, cz)).floor.heightMap;
+                Assert.assertEquals(expected.walkableBlocks.size(), actual.walkableBlocks.size());
+                for (int id = 0; id < expected.walkableBlocks.size(); id++) {
+                    WalkableBlock expectedBlock = expected.walkableBlocks.get(id);
+                    WalkableBlock actualBlock = actual.walkableBlocks.get(id);
+                    Assert.assertEquals(expectedBlock.getBlockPosition(), actualBlock.getBlockPosition());
+                    Assert.assertEquals(id, actualBlock.id);
+                    for (int dir = 0; dir < 8; dir++) {
+                        WalkableBlock expectedNeighbor = expectedBlock.neighbors[dir];
+                        WalkableBlock actualNeighbor = actualBlock.neighbors[dir];
+                        if (expectedNeighbor == null) {
+                            Assert.assertNull(actualNeighbor);
+                        } else {
+                            Assert.assertEquals(expectedNeighbor.getBlockPosition(), actualNeighbor.getBlockPosition());
+                            Assert.assertSame(actualNeighbor, pathfinder.getBlock(actualNeighbor.getBlockPosition()));
+                        }
+                    }
+                }
+                for (Floor floor : actual.floors) {
+                    assertConnected(actual, floor);
+                }
+            }
+        }
+    }
+
+    private Vector3i findBlock(Pathfinder finder, int cx, int cz) {
+        for (int y = 55; y > 40; y--) {
+            Vector3i pos = new Vector3i(cx * HeightMap.SIZE_X + 1, y, cz * HeightMap.SIZE_Z + 1);
+            if (finder.getBlock(pos) != null) {
+                return pos;
+            }
+        }
+        throw new IllegalStateException("no block in chunk " + cx + ", " + cz);
+    }
+
+    private void assertConnected(HeightMap map, Floor floor) {
+        WalkableBlock first = null;
+        int count = 0;
+        for (WalkableBlock block : map.walkableBlocks) {
+            if (block.floor == floor) {
+                Assert.assertTrue(floor.getMap().isPassable(block.x() - map.worldPos.x, block.z() - map.worldPos.z));
+                first = block;
+                count++;
+            }
+        }
+        Assert.assertNotNull(first);
+        Set<WalkableBlock> visited = Sets.newHashSet(first);
+        Set<WalkableBlock> open = Sets.newHashSet(first);
+        while (!open.isEmpty()) {
+            WalkableBlock current = open.iterator().next();
+            open.remove(current);
+            for (WalkableBlock neighbor : current.neighbors) {
+                if (neighbor != null && neighbor.floor == floor && visited.add(neighbor)) {
+                    open.add(neighbor);
+                }
+            }
+        }
+        Assert.assertEquals(count, visited.size());
+    }
+}
@@ -17,6 +17,7 @@ package org.terasology.pathfinding.model;
 
 import org.junit.Assert;
 import org.junit.Test;
+import org.terasology.math.Vector3i;
 
 import java.util.HashSet;
 import java.util.Set;
@@ -297,6 +298,38 @@ public class FloorFinderTest {
         });
     }
 
+    @Test
+    public void testSameAsReference() {
+        TestHelper helper = new TestHelper();
+        helper.init(new WalkableScanBenchmark.CaveGenerator());
+        WalkableBlockFinder blockFinder = new WalkableBlockFinder(helper.world);
+        for (int x = 0; x < 3; x++) {
+            for (int z = 0; z < 3; z++) {
+                HeightMap expected = new HeightMap(helper.world, new Vector3i(x, 0, z));
+                HeightMap actual = new HeightMap(helper.world, new Vector3i(x, 0, z));
+                blockFinder.findWalkableBlocks(expected);
+                blockFinder.findWalkableBlocks(actual);
+                ReferenceFloorFinder reference = new ReferenceFloorFinder();
+                FloorFinder finder = new FloorFinder();
+                reference.findFloors(expected);
+                finder.findFloors(actual);
+
+                Assert.assertEquals(reference.regions().size(), finder.regions().size());
+                Assert.assertEquals(expected.floors.size(), actual.floors.size());
+                for (int i = 0; i < expected.floors.size(); i++) {
+                    Assert.assertEquals(expected.floors.get(i).getMap().toString(), actual.floors.get(i).getMap().toString());
+                }
+                Assert.assertEquals(expected.walkableBlocks.size(), actual.walkableBlocks.size());
+                for (int i = 0; i < expected.walkableBlocks.size(); i++) {
+                    WalkableBlock expectedBlock = expected.walkableBlocks.get(i);
+                    WalkableBlock actualBlock = actual.walkableBlocks.get(i);
+                    Assert.assertEquals(reference.region(expectedBlock).id, finder.region(actualBlock).id);
+                    Assert.assertEquals(expectedBlock.floor.id, actualBlock.floor.id);
+                }
+            }
+        }
+    }
+
     private void assertFloors(String[] data, String[] floors) {
         assertFloors(data, floors, null);
     }
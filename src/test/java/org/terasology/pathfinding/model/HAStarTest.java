@@ -105,6 +105,35 @@ public class HAStarTest {
 
     }
 
+    @Test
+    public void localJumpPoints() {
+        TestHelper helper = new TestHelper();
+        helper.init();
+        helper.setGround(
+                "XXXXXXXX|    X   |    X   |    X   ",
+                "XXXXXXXX|    X   |    X   |    X   ",
+                "XXXXXXXX|    X   |    X   |    X   ",
+                "XXXXXXXX|    X   |    X   |    X   ",
+                "XXXXXXXX|    X   |    X   |    X   ",
+                "XXXXXXXX|        |        |        ",
+                "XXXXXXXX|        |        |        "
+        );
+        helper.map.update();
+        WalkableBlock from = helper.map.getBlock(0, 0, 0);
+        WalkableBlock to = helper.map.getBlock(7, 0, 0);
+
+        HAStar sut = new HAStar(false);
+        Path path = sut.findLocalPath(from, to);
+        Assert.assertEquals(1, sut.getJumpPointPaths());
+        HAStar blockSearch = new HAStar(false);
+        Assert.assertTrue(blockSearch.run(from, to));
+        Assert.assertEquals(blockSearch.getPath().size(), path.size());
+        Assert.assertSame(to, path.get(0));
+        for (int i = 0; i < path.size(); i++) {
+            Assert.assertTrue(path.get(i).hasNeighbor(i + 1 < path.size() ? path.get(i + 1) : from));
+        }
+    }
+
     private void executeExample(String[] ground, String[] pathData) {
         final TestHelper helper = new TestHelper();
         helper.init();
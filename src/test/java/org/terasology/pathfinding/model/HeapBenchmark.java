@@ -0,0 +1,110 @@
+/*
+ * Copyright 2013 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.pathfinding.model;
+
+import java.util.Comparator;
+import java.util.Random;
+
+/**
+ * Compares BinaryHeap against MinHeap on an A* like workload (inserts, decrease keys and removals).
+ * Run as a plain java application, after a warm up phase the average time per round is printed.
+ *
+ * @author synopia
+ */
+public class HeapBenchmark {
+    private static final int NODES = 64 * 1024;
+    private static final int WARMUP_ROUNDS = 20;
+    private static final int ROUNDS = 50;
+
+    private final float[] fMap = new float[NODES];
+    private final float[] keys = new float[NODES];
+    private final int[] decreases = new int[NODES];
+    private int sink;
+
+    public HeapBenchmark() {
+        Random random = new Random(1);
+        for (int i = 0; i < NODES; i++) {
+            keys[i] = random.nextFloat() * 1000;
+            decreases[i] = random.nextInt(NODES);
+        }
+    }
+
+    public long runBinaryHeap() {
+        BinaryHeap heap = new BinaryHeap(new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                float fA = fMap[a];
+                float fB = fMap[b];
+                return -(fA < fB ? -1 : (fA > fB ? 1 : 0));
+            }
+        }, 1024, NODES);
+        long time = System.nanoTime();
+        for (int i = 0; i < NODES; i++) {
+            fMap[i] = keys[i];
+            heap.insert(i);
+            int item = decreases[i];
+            if (heap.contains(item)) {
+                fMap[item] *= 0.9f;
+                heap.update(item);
+            }
+            if ((i & 3) == 0) {
+                sink += heap.removeMin();
+            }
+        }
+        while (!heap.isEmpty()) {
+            sink += heap.removeMin();
+        }
+        return System.nanoTime() - time;
+    }
+
+    public long runMinHeap() {
+        MinHeap heap = new MinHeap(1024, NODES);
+        long time = System.nanoTime();
+        for (int i = 0; i < NODES; i++) {
+            fMap[i] = keys[i];
+            heap.insert(i, fMap[i]);
+            int item = decreases[i];
+            if (heap.contains(item)) {
+                fMap[item] *= 0.9f;
+                heap.decreaseKey(item, fMap[item]);
+            }
+            if ((i & 3) == 0) {
+                sink += heap.removeMin();
+            }
+        }
+        while (!heap.isEmpty()) {
+            sink += heap.removeMin();
+        }
+        return System.nanoTime() - time;
+    }
+
+    public static void main(String[] args) {
+        HeapBenchmark benchmark = new HeapBenchmark();
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            benchmark.runBinaryHeap();
+            benchmark.runMinHeap();
+        }
+        long binaryHeap = 0;
+        long minHeap = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            binaryHeap += benchmark.runBinaryHeap();
+            minHeap += benchmark.runMinHeap();
+        }
+        System.out.println("BinaryHeap: " + binaryHeap / ROUNDS / 1000 + " us/round");
+        System.out.println("MinHeap:    " + minHeap / ROUNDS / 1000 + " us/round");
+        System.out.println(benchmark.sink);
+    }
+}
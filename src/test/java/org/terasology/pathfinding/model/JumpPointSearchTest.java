@@ -0,0 +1,142 @@
+/*
+ * Copyright 2013 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.pathfinding.model;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * @author synopia
+ */
+public class JumpPointSearchTest {
+    @Test
+    public void open() {
+        BitMap map = new BitMap();
+        for (int i = 0; i < map.getNumberOfNodes(); i++) {
+            map.setPassable(i);
+        }
+        JumpPointSearch sut = new JumpPointSearch(map);
+        Assert.assertTrue(sut.run(map.offset(0, 0), map.offset(15, 15)));
+        Assert.assertEquals(16, sut.getPath().size());
+        Assert.assertEquals(2, sut.getJumpPoints().size());
+        Assert.assertEquals(15 * BitMap.SQRT_2, sut.getG(map.offset(15, 15)), 0.001f);
+    }
+
+    @Test
+    public void noCornerCutting() {
+        BitMap map = new BitMap();
+        map.setPassable(0, 0);
+        map.setPassable(1, 0);
+        map.setPassable(1, 1);
+        JumpPointSearch sut = new JumpPointSearch(map);
+        Assert.assertTrue(sut.run(map.offset(0, 0), map.offset(1, 1)));
+        Assert.assertEquals(Arrays.asList(map.offset(1, 1), map.offset(1, 0), map.offset(0, 0)), sut.getPath());
+
+        map = new BitMap();
+        map.setPassable(0, 0);
+        map.setPassable(1, 1);
+        sut = new JumpPointSearch(map);
+        Assert.assertFalse(sut.run(map.offset(0, 0), map.offset(1, 1)));
+    }
+
+    @Test
+    public void randomMaps() {
+        Random random = new Random(1);
+        for (int n = 0; n < 50; n++) {
+            BitMap map = new BitMap();
+            for (int i = 0; i < map.getNumberOfNodes(); i++) {
+                if (random.nextInt(4) > 0) {
+                    map.setPassable(i);
+                }
+            }
+            JumpPointSearch sut = new JumpPointSearch(map);
+            for (int q = 0; q < 20; q++) {
+                int start = random.nextInt(map.getNumberOfNodes());
+                int end = random.nextInt(map.getNumberOfNodes());
+                if (!map.isPassable(start) || !map.isPassable(end)) {
+                    continue;
+                }
+                float[] expected = distances(map, start);
+                boolean found = sut.run(start, end);
+                Assert.assertEquals(expected[end] != Float.POSITIVE_INFINITY, found);
+                if (found) {
+                    Assert.assertEquals(expected[end], sut.getG(end), 0.001f);
+                    assertSteps(map, sut.getPath(), start, end);
+                }
+            }
+        }
+    }
+
+    private void assertSteps(BitMap map, List<Integer> path, int start, int end) {
+        Assert.assertEquals(end, (int) path.get(0));
+        Assert.assertEquals(start, (int) path.get(path.size() - 1));
+        for (int i = 0; i < path.size() - 1; i++) {
+            int from = path.get(i);
+            int to = path.get(i + 1);
+            int dx = map.getX(to) - map.getX(from);
+            int dy = map.getY(to) - map.getY(from);
+            Assert.assertTrue(Math.abs(dx) <= 1 && Math.abs(dy) <= 1);
+            Assert.assertTrue(map.isPassable(to));
+            if (dx != 0 && dy != 0) {
+                Assert.assertTrue(map.isPassable(map.getX(from) + dx, map.getY(from)));
+                Assert.assertTrue(map.isPassable(map.getX(from), map.getY(from) + dy));
+            }
+        }
+    }
+
+    /**
+     * Plain Dijkstra with the same moves, as reference.
+     */
+    private float[] distances(BitMap map, int start) {
+        float[] distance = new float[map.getNumberOfNodes()];
+        Arrays.fill(distance, Float.POSITIVE_INFINITY);
+        boolean[] closed = new boolean[distance.length];
+        distance[start] = 0;
+        while (true) {
+            int current = -1;
+            for (int i = 0; i < distance.length; i++) {
+                if (!closed[i] && distance[i] != Float.POSITIVE_INFINITY && (current < 0 || distance[i] < distance[current])) {
+                    current = i;
+                }
+            }
+            if (current < 0) {
+                return distance;
+            }
+            closed[current] = true;
+            int x = map.getX(current);
+            int y = map.getY(current);
+            for (int dx = -1; dx <= 1; dx++) {
+                for (int dy = -1; dy <= 1; dy++) {
+                    if (dx == 0 && dy == 0 || !map.isPassable(x + dx, y + dy)) {
+                        continue;
+                    }
+                    if (dx != 0 && dy != 0 && !(map.isPassable(x + dx, y) && map.isPassable(x, y + dy))) {
+                        continue;
+                    }
+                    float cost = distance[current] + (dx != 0 && dy != 0 ? BitMap.SQRT_2 : 1);
+                    int next = map.offset(x + dx, y + dy);
+                    if (cost < distance[next]) {
+                        distance[next] = cost;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2013 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.pathfinding.model;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * @author synopia
+ */
+public class MinHeapTest {
+    @Test
+    public void testOrder() {
+        MinHeap heap = new MinHeap(4, 4);
+        float[] keys = new float[]{5, 3, 8, 1, 9, 2, 7};
+        for (int i = 0; i < keys.length; i++) {
+            heap.insert(i, keys[i]);
+        }
+        Assert.assertEquals(keys.length, heap.getSize());
+        Assert.assertEquals(3, heap.removeMin());
+        Assert.assertEquals(5, heap.removeMin());
+        Assert.assertEquals(1, heap.removeMin());
+        Assert.assertEquals(0, heap.removeMin());
+        Assert.assertEquals(6, heap.removeMin());
+        Assert.assertEquals(2, heap.removeMin());
+        Assert.assertEquals(4, heap.removeMin());
+        Assert.assertTrue(heap.isEmpty());
+    }
+
+    @Test
+    public void testDecreaseKey() {
+        MinHeap heap = new MinHeap();
+        heap.insert(1, 10);
+        heap.insert(2, 20);
+        heap.insert(3, 30);
+        heap.decreaseKey(3, 5);
+        Assert.assertTrue(heap.contains(3));
+        Assert.assertEquals(5f, heap.getKey(3), 0);
+        Assert.assertEquals(3, heap.removeMin());
+        Assert.assertFalse(heap.contains(3));
+        Assert.assertEquals(1, heap.removeMin());
+        Assert.assertEquals(2, heap.removeMin());
+    }
+
+    @Test
+    public void testClear() {
+        MinHeap heap = new MinHeap();
+        heap.insert(1, 10);
+        heap.insert(2, 20);
+        heap.clear();
+        Assert.assertTrue(heap.isEmpty());
+        Assert.assertFalse(heap.contains(1));
+        Assert.assertFalse(heap.contains(2));
+    }
+
+    @Test
+    public void testRandom() {
+        Random random = new Random(1);
+        MinHeap heap = new MinHeap(16, 16);
+        float[] keys = new float[1000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = random.nextFloat() * 100;
+            heap.insert(i, keys[i]);
+        }
+        for (int i = 0; i < keys.length; i += 3) {
+            keys[i] /= 2;
+            heap.decreaseKey(i, keys[i]);
+        }
+        float[] sorted = keys.clone();
+        Arrays.sort(sorted);
+        for (float key : sorted) {
+            int item = heap.removeMin();
+            Assert.assertEquals(key, keys[item], 0);
+        }
+        Assert.assertTrue(heap.isEmpty());
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2013 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.pathfinding.model;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author synopia
+ */
+public class PathCacheTest {
+    @Test
+    public void testEviction() {
+        PathCache cache = new PathCache(4);
+        WalkableBlock target = new WalkableBlock(0, 0, 0);
+        WalkableBlock[] starts = new WalkableBlock[8];
+        for (int i = 0; i < starts.length; i++) {
+            starts[i] = new WalkableBlock(i + 1, 0, 0);
+            cache.insert(starts[i], target, new Path());
+        }
+        Assert.assertTrue(cache.size() <= 4);
+        Assert.assertTrue(cache.getEvictionCount() >= 4);
+        Assert.assertNotNull(cache.getCachedPath(starts[7], target));
+        Assert.assertNull(cache.getCachedPath(target, starts[7]));
+    }
+
+    @Test
+    public void testEvictedPathsNotIndexed() {
+        PathCache cache = new PathCache(0);
+        WalkableBlock from = new WalkableBlock(0, 0, 0);
+        WalkableBlock to = new WalkableBlock(1, 0, 0);
+        cache.insert(from, to, new Path());
+        Assert.assertEquals(0, cache.size());
+        Assert.assertEquals(0, cache.getIndexSize());
+
+        cache = new PathCache(1);
+        cache.insert(from, to, new Path());
+        cache.insert(to, from, new Path());
+        Assert.assertEquals(1, cache.size());
+        Assert.assertEquals(1, cache.getIndexSize());
+    }
+
+    @Test
+    public void testStats() {
+        PathCache cache = new PathCache();
+        final WalkableBlock from = new WalkableBlock(0, 0, 0);
+        final WalkableBlock to = new WalkableBlock(1, 0, 0);
+        final int[] runs = new int[1];
+        PathCache.Callback callback = new PathCache.Callback() {
+            @Override
+            public Path run(WalkableBlock start, WalkableBlock end) {
+                runs[0]++;
+                Path path = new Path();
+                path.add(end);
+                path.add(start);
+                return path;
+            }
+        };
+        Path first = cache.findPath(from, to, callback);
+        Path second = cache.findPath(from, to, callback);
+        Assert.assertSame(first, second);
+        Assert.assertEquals(1, runs[0]);
+        Assert.assertTrue(cache.hasPath(from, to));
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(1, cache.getMissCount());
+
+        cache.invalidate(null);
+        Assert.assertFalse(cache.hasPath(from, to));
+        cache.findPath(from, to, callback);
+        Assert.assertEquals(2, runs[0]);
+
+        cache.clear();
+        Assert.assertEquals(0, cache.size());
+        Assert.assertFalse(cache.hasPath(from, to));
+    }
+
+    @Test
+    public void testPartialPathsNotCached() {
+        PathCache cache = new PathCache();
+        WalkableBlock from = new WalkableBlock(0, 0, 0);
+        WalkableBlock to = new WalkableBlock(5, 0, 0);
+        Path path = new Path();
+        path.add(new WalkableBlock(1, 0, 0));
+        path.add(from);
+        path.setPartial(true);
+        cache.insert(from, to, path);
+        Assert.assertFalse(cache.hasPath(from, to));
+        Assert.assertEquals(0, cache.size());
+    }
+}
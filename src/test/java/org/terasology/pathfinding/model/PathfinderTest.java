@@ -15,12 +15,19 @@
  */
 package org.terasology.pathfinding.model;
 
+import com.google.common.collect.Lists;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.terasology.math.Vector3i;
 import org.terasology.pathfinding.PathfinderTestGenerator;
 
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 /**
  * @author synopia
  */
@@ -58,6 +65,421 @@ public class PathfinderTest {
         Assert.assertTrue(0 < path.size());
     }
 
+    @Test
+    public void testEntranceCosts() {
+        HeightMap center = null;
+        for (int x = 0; x < 3; x++) {
+            for (int z = 0; z < 3; z++) {
+                HeightMap map = pathfinder.init(new Vector3i(x, 0, z));
+                if (x == 1 && z == 1) {
+                    center = map;
+                }
+            }
+        }
+        int edges = 0;
+        for (Floor floor : center.floors) {
+            Floor.EntranceCosts costs = floor.getEntranceCosts();
+            for (int edge = 0; edge < costs.size(); edge++) {
+                Path path = costs.getPath(edge);
+                if (path != Path.INVALID) {
+                    Assert.assertEquals(path.size(), costs.getCost(edge), 0);
+                    edges++;
+                }
+            }
+        }
+        Assert.assertTrue(edges > 0);
+    }
+
+    @Test
+    public void testClusters() {
+        Pathfinder flat = new Pathfinder(helper.world, 0, 0);
+        pathfinder = new Pathfinder(helper.world, 2, 2);
+        for (int x = 0; x < 6; x++) {
+            for (int z = 0; z < 6; z++) {
+                flat.init(new Vector3i(x, 0, z));
+                pathfinder.init(new Vector3i(x, 0, z));
+            }
+        }
+        Vector3i startPos = new Vector3i(2, 50, 2);
+        Vector3i targetPos = new Vector3i(6 * HeightMap.SIZE_X - 3, 50, 6 * HeightMap.SIZE_Z - 3);
+        Path expected = flat.findPath(flat.getBlock(targetPos), flat.getBlock(startPos));
+        assertPath(expected.size(), startPos, targetPos);
+
+        pathfinder.update(new Vector3i(2, 0, 2));
+        assertPath(expected.size(), startPos, targetPos);
+    }
+
+    @Test
+    public void testBidirectional() {
+        pathfinder.setBidirectional(true);
+        for (int x = 0; x < 6; x++) {
+            for (int z = 0; z < 6; z++) {
+                pathfinder.init(new Vector3i(x, 0, z));
+            }
+        }
+        Vector3i startPos = new Vector3i(2, 50, 2);
+        Vector3i targetPos = new Vector3i(6 * HeightMap.SIZE_X - 3, 50, 6 * HeightMap.SIZE_Z - 3);
+        assertPath(Integer.MAX_VALUE, startPos, targetPos);
+
+        Path path = pathfinder.findPath(pathfinder.getBlock(new Vector3i(14 + 16, 45, 12)), pathfinder.getBlock(new Vector3i(0, 51, 1)));
+        Assert.assertEquals(0, path.size());
+    }
+
+    @Test
+    public void testBidirectionalCost() {
+        for (int x = 0; x < 6; x++) {
+            for (int z = 0; z < 6; z++) {
+                pathfinder.init(new Vector3i(x, 0, z));
+            }
+        }
+        // on the plain block graph both searches must find the cheapest path
+        HAStar unidirectional = new HAStar(false);
+        unidirectional.setAdmissibleHeuristic(true);
+        BidirectionalHAStar bidirectional = new BidirectionalHAStar(false);
+        HAStar abstractUnidirectional = new HAStar();
+        BidirectionalHAStar abstractBidirectional = new BidirectionalHAStar();
+        int paths = 0;
+        for (int i = 0; i < 5; i++) {
+            WalkableBlock start = pathfinder.getBlock(new Vector3i(2 + i * 7, 50, 2 + i * 3));
+            WalkableBlock target = pathfinder.getBlock(new Vector3i(6 * HeightMap.SIZE_X - 3 - i * 5, 50, 6 * HeightMap.SIZE_Z - 3 - i * 9));
+            if (start == null || target == null) {
+                continue;
+            }
+            unidirectional.reset();
+            bidirectional.reset();
+            boolean found = unidirectional.run(start, target);
+            Assert.assertEquals(found, bidirectional.run(start, target));
+            if (found) {
+                Assert.assertEquals(unidirectional.getCost(), bidirectional.getCost(), 0.01f);
+                paths++;
+            }
+            // on the abstract graph, the path found from both sides is never more expensive
+            abstractUnidirectional.reset();
+            abstractBidirectional.reset();
+            Assert.assertEquals(found, abstractUnidirectional.run(start, target));
+            Assert.assertEquals(found, abstractBidirectional.run(start, target));
+            if (found) {
+                Assert.assertTrue(abstractBidirectional.getCost() <= abstractUnidirectional.getCost() + 0.01f);
+                Assert.assertTrue(abstractBidirectional.getCost() >= bidirectional.getCost() - 0.01f);
+            }
+        }
+        Assert.assertTrue(paths > 0);
+    }
+
+    @Test
+    public void testMultipleStarts() {
+        Pathfinder single = new Pathfinder(helper.world);
+        for (int x = 0; x < 6; x++) {
+            for (int z = 0; z < 6; z++) {
+                single.init(new Vector3i(x, 0, z));
+                pathfinder.init(new Vector3i(x, 0, z));
+            }
+        }
+        WalkableBlock target = pathfinder.getBlock(new Vector3i(6 * HeightMap.SIZE_X - 3, 50, 6 * HeightMap.SIZE_Z - 3));
+        List<WalkableBlock> starts = Lists.newArrayList();
+        for (int x = 0; x < 4; x++) {
+            for (int z = 0; z < 4; z++) {
+                WalkableBlock start = pathfinder.getBlock(new Vector3i(x * 5 + 2, 50, z * 5 + 2));
+                if (start != null) {
+                    starts.add(start);
+                }
+            }
+        }
+        Assert.assertTrue(starts.size() > 1);
+
+        List<Path> paths = pathfinder.findPath(target, starts);
+        Assert.assertEquals(starts.size(), paths.size());
+        int found = 0;
+        for (int i = 0; i < starts.size(); i++) {
+            WalkableBlock start = starts.get(i);
+            Path path = paths.get(i);
+            Path expected = single.findPath(single.getBlock(target.getBlockPosition()), single.getBlock(start.getBlockPosition()));
+            Assert.assertEquals(expected.size() > 0, path.size() > 0);
+            if (path.size() > 0) {
+                assertValidPath(path, target, start);
+                found++;
+            }
+        }
+        Assert.assertTrue(found > 0);
+
+        Path best = pathfinder.findBestPath(target, starts);
+        Assert.assertTrue(best.size() > 0);
+        Assert.assertTrue(starts.contains(best.get(best.size() - 1)));
+        assertValidPath(best, target, best.get(best.size() - 1));
+    }
+
+    @Test
+    public void testUnreachableStarts() {
+        helper = new TestHelper();
+        helper.init(new PathfinderTestGenerator(false));
+        pathfinder = new Pathfinder(helper.world);
+        for (int x = 0; x < 3; x++) {
+            for (int z = 0; z < 3; z++) {
+                pathfinder.init(new Vector3i(x, 0, z));
+            }
+        }
+        WalkableBlock target = pathfinder.getBlock(new Vector3i(3 * HeightMap.SIZE_X - 3, 45, 3 * HeightMap.SIZE_Z - 3));
+        List<WalkableBlock> starts = Lists.newArrayList();
+        starts.add(pathfinder.getBlock(new Vector3i(2, 50, 2)));
+        starts.add(pathfinder.getBlock(new Vector3i(20, 50, 20)));
+        starts.add(pathfinder.getBlock(new Vector3i(3 * HeightMap.SIZE_X - 5, 45, 3 * HeightMap.SIZE_Z - 5)));
+
+        List<Path> paths = pathfinder.findPath(target, starts);
+        Assert.assertEquals(0, paths.get(0).size());
+        Assert.assertEquals(0, paths.get(1).size());
+        assertValidPath(paths.get(2), target, starts.get(2));
+    }
+
+    @Test
+    public void testCacheInvalidation() {
+        for (int x = 0; x < 4; x++) {
+            for (int z = 0; z < 2; z++) {
+                pathfinder.init(new Vector3i(x, 0, z));
+            }
+        }
+        WalkableBlock leftStart = pathfinder.getBlock(new Vector3i(2, 50, 2));
+        WalkableBlock leftTarget = pathfinder.getBlock(new Vector3i(HeightMap.SIZE_X + 2, 50, 2));
+        WalkableBlock rightStart = pathfinder.getBlock(new Vector3i(3 * HeightMap.SIZE_X + 2, 50, 2));
+        WalkableBlock rightTarget = pathfinder.getBlock(new Vector3i(3 * HeightMap.SIZE_X + 2, 50, HeightMap.SIZE_Z + 2));
+        Path left = pathfinder.findPath(leftTarget, leftStart);
+        Path right = pathfinder.findPath(rightTarget, rightStart);
+        Assert.assertTrue(left.size() > 0);
+        Assert.assertTrue(right.size() > 0);
+        PathCache cache = pathfinder.getCache();
+        Assert.assertTrue(cache.hasPath(leftStart, leftTarget));
+        Assert.assertTrue(cache.hasPath(rightStart, rightTarget));
+
+        pathfinder.update(new Vector3i(0, 0, 0));
+        Assert.assertFalse(cache.hasPath(leftStart, leftTarget));
+        Assert.assertTrue(cache.hasPath(rightStart, rightTarget));
+        Assert.assertSame(right, pathfinder.findPath(rightTarget, rightStart));
+        Assert.assertEquals(0.5, cache.getSurvivalRatio(), 0.001);
+
+        assertPath(Integer.MAX_VALUE, new Vector3i(2, 50, 2), new Vector3i(HeightMap.SIZE_X + 2, 50, 2));
+    }
+
+    @Test
+    public void testParallelSearches() throws Exception {
+        Pathfinder single = new Pathfinder(helper.world);
+        for (int x = 0; x < 6; x++) {
+            for (int z = 0; z < 6; z++) {
+                single.init(new Vector3i(x, 0, z));
+                pathfinder.init(new Vector3i(x, 0, z));
+            }
+        }
+        final List<Vector3i> positions = Lists.newArrayList();
+        final List<Boolean> expected = Lists.newArrayList();
+        for (int i = 0; i < 5; i++) {
+            positions.add(new Vector3i(i * HeightMap.SIZE_X + 2, 50, i * 3 + 2));
+        }
+        for (Vector3i from : positions) {
+            for (Vector3i to : positions) {
+                expected.add(single.findPath(single.getBlock(to), single.getBlock(from)).size() > 0);
+            }
+        }
+        Assert.assertTrue(expected.contains(true));
+
+        ExecutorService threads = Executors.newFixedThreadPool(5);
+        List<Future<List<Boolean>>> results = Lists.newArrayList();
+        for (int i = 0; i < 4; i++) {
+            results.add(threads.submit(new Callable<List<Boolean>>() {
+                @Override
+                public List<Boolean> call() throws Exception {
+                    List<Boolean> found = Lists.newArrayList();
+                    for (Vector3i from : positions) {
+                        for (Vector3i to : positions) {
+                            WalkableBlock start = pathfinder.getBlock(from);
+                            WalkableBlock target = pathfinder.getBlock(to);
+                            Path path = pathfinder.findPath(target, start);
+                            found.add(path.size() > 0);
+                            if (path.size() > 0) {
+                                Assert.assertEquals(to, path.get(0).getBlockPosition());
+                                Assert.assertEquals(from, path.get(path.size() - 1).getBlockPosition());
+                            }
+                        }
+                    }
+                    return found;
+                }
+            }));
+        }
+        Future<?> updates = threads.submit(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 5; i++) {
+                    pathfinder.update(new Vector3i(5, 0, 5));
+                }
+            }
+        });
+        updates.get();
+        for (Future<List<Boolean>> result : results) {
+            Assert.assertEquals(expected, result.get());
+        }
+        threads.shutdown();
+        Assert.assertEquals(36 + 5, pathfinder.getVersion());
+    }
+
+    @Test
+    public void testParallelUpdate() {
+        Pathfinder single = new Pathfinder(helper.world);
+        List<Vector3i> chunks = Lists.newArrayList();
+        for (int x = 5; x >= 0; x--) {
+            for (int z = 0; z < 6; z++) {
+                single.init(new Vector3i(x, 0, z));
+                chunks.add(new Vector3i(x, 0, z));
+            }
+        }
+        pathfinder.init(new Vector3i(2, 0, 2));
+        ExecutorService threads = Executors.newFixedThreadPool(4);
+        List<HeightMap> maps = pathfinder.update(chunks, threads);
+        threads.shutdown();
+
+        Assert.assertEquals(chunks.size(), maps.size());
+        for (int i = 0; i < chunks.size(); i++) {
+            Vector3i chunkPos = chunks.get(i);
+            HeightMap expected = single.init(chunkPos);
+            HeightMap actual = maps.get(i);
+            Assert.assertSame(actual, pathfinder.init(chunkPos));
+            Assert.assertEquals(expected.walkableBlocks.size(), actual.walkableBlocks.size());
+            Assert.assertEquals(expected.floors.size(), actual.floors.size());
+            for (int j = 0; j < expected.walkableBlocks.size(); j++) {
+                WalkableBlock expectedBlock = expected.walkableBlocks.get(j);
+                WalkableBlock actualBlock = actual.walkableBlocks.get(j);
+                Assert.assertEquals(expectedBlock.getBlockPosition(), actualBlock.getBlockPosition());
+                for (int dir = 0; dir < 8; dir++) {
+                    WalkableBlock expectedNeighbor = expectedBlock.neighbors[dir];
+                    WalkableBlock actualNeighbor = actualBlock.neighbors[dir];
+                    Assert.assertEquals(expectedNeighbor == null, actualNeighbor == null);
+                    if (expectedNeighbor != null) {
+                        Assert.assertEquals(expectedNeighbor.getBlockPosition(), actualNeighbor.getBlockPosition());
+                    }
+                }
+            }
+        }
+        // the entrance costs are built once, after all maps are connected, so building them again changes nothing
+        List<Floor.EntranceCosts> costs = Lists.newArrayList();
+        for (HeightMap map : maps) {
+            for (Floor floor : map.floors) {
+                costs.add(floor.getEntranceCosts());
+            }
+        }
+        HeightMap.updateEntranceCosts(maps.toArray(new HeightMap[maps.size()]));
+        int index = 0;
+        for (HeightMap map : maps) {
+            for (Floor floor : map.floors) {
+                Floor.EntranceCosts expectedCosts = floor.getEntranceCosts();
+                Floor.EntranceCosts actualCosts = costs.get(index++);
+                Assert.assertEquals(expectedCosts.size(), actualCosts.size());
+                for (int edge = 0; edge < expectedCosts.size(); edge++) {
+                    Assert.assertEquals(expectedCosts.getCost(edge), actualCosts.getCost(edge), 0.001f);
+                }
+            }
+        }
+        assertPath(Integer.MAX_VALUE, new Vector3i(2, 50, 2), new Vector3i(6 * HeightMap.SIZE_X - 3, 50, 6 * HeightMap.SIZE_Z - 3));
+    }
+
+    @Test
+    public void testResumableSearch() {
+        Pathfinder single = new Pathfinder(helper.world);
+        for (int x = 0; x < 6; x++) {
+            for (int z = 0; z < 6; z++) {
+                single.init(new Vector3i(x, 0, z));
+                pathfinder.init(new Vector3i(x, 0, z));
+            }
+        }
+        Vector3i startPos = new Vector3i(2, 50, 2);
+        Vector3i targetPos = new Vector3i(6 * HeightMap.SIZE_X - 3, 50, 6 * HeightMap.SIZE_Z - 3);
+        Path expected = single.findPath(single.getBlock(targetPos), single.getBlock(startPos));
+        Assert.assertTrue(expected.size() > 0);
+
+        WalkableBlock start = pathfinder.getBlock(startPos);
+        WalkableBlock target = pathfinder.getBlock(targetPos);
+        Pathfinder.Search search = pathfinder.startSearch(target, start);
+        int steps = 0;
+        while (!search.step(5, Long.MAX_VALUE)) {
+            steps++;
+            if (steps == 3) {
+                pathfinder.update(new Vector3i(2, 0, 2));
+                start = pathfinder.getBlock(startPos);
+                target = pathfinder.getBlock(targetPos);
+            }
+        }
+        Assert.assertTrue(steps > 3);
+        Path path = search.getPath();
+        Assert.assertEquals(expected.size(), path.size());
+        assertValidPath(path, target, start);
+        Assert.assertSame(path, pathfinder.findPath(target, start));
+        Assert.assertTrue(search.step(5, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testSearchRestartLimit() {
+        for (int x = 0; x < 6; x++) {
+            for (int z = 0; z < 6; z++) {
+                pathfinder.init(new Vector3i(x, 0, z));
+            }
+        }
+        Vector3i startPos = new Vector3i(2, 50, 2);
+        Vector3i targetPos = new Vector3i(6 * HeightMap.SIZE_X - 3, 50, 6 * HeightMap.SIZE_Z - 3);
+        Pathfinder.Search search = pathfinder.startSearch(pathfinder.getBlock(targetPos), pathfinder.getBlock(startPos));
+        int steps = 0;
+        while (!search.step(5, Long.MAX_VALUE)) {
+            steps++;
+            // a change somewhere else after every step
+            pathfinder.update(new Vector3i(5, 0, 0));
+        }
+        Assert.assertTrue(steps <= Pathfinder.MAX_SEARCH_RESTARTS + 1);
+        assertValidPath(search.getPath(), pathfinder.getBlock(targetPos), pathfinder.getBlock(startPos));
+    }
+
+    @Test
+    public void testPartialPath() {
+        for (int x = 0; x < 6; x++) {
+            for (int z = 0; z < 6; z++) {
+                pathfinder.init(new Vector3i(x, 0, z));
+            }
+        }
+        WalkableBlock start = pathfinder.getBlock(new Vector3i(2, 50, 2));
+        WalkableBlock target = pathfinder.getBlock(new Vector3i(6 * HeightMap.SIZE_X - 3, 50, 6 * HeightMap.SIZE_Z - 3));
+        HAStar haStar = new HAStar();
+        haStar.setMaxNodes(100);
+        Assert.assertFalse(haStar.run(start, target));
+        Assert.assertNull(haStar.getPartialPath());
+
+        haStar.reset();
+        haStar.setPartialPaths(true);
+        Assert.assertFalse(haStar.run(start, target));
+        Path path = haStar.getPartialPath();
+        Assert.assertTrue(path.isPartial());
+        Assert.assertTrue(path.size() > 0);
+        path.add(start);
+        assertValidPath(path, path.get(0), start);
+        Assert.assertTrue(path.get(0).getBlockPosition().gridDistance(target.getBlockPosition())
+                < start.getBlockPosition().gridDistance(target.getBlockPosition()));
+
+        haStar.reset();
+        haStar.setMaxNodes(64 * 1024);
+        Assert.assertTrue(haStar.run(start, target));
+        Assert.assertFalse(haStar.getPath().isPartial());
+        Assert.assertNull(haStar.getPartialPath());
+    }
+
+    private void assertValidPath(Path path, WalkableBlock target, WalkableBlock start) {
+        Assert.assertSame(target, path.get(0));
+        Assert.assertSame(start, path.get(path.size() - 1));
+        for (int i = 0; i < path.size() - 1; i++) {
+            Assert.assertTrue(path.get(i).hasNeighbor(path.get(i + 1)));
+        }
+    }
+
+    private void assertPath(int expectedSize, Vector3i startPos, Vector3i targetPos) {
+        WalkableBlock start = pathfinder.getBlock(startPos);
+        WalkableBlock target = pathfinder.getBlock(targetPos);
+        Path path = pathfinder.findPath(target, start);
+        Assert.assertTrue(path.size() > 0);
+        Assert.assertTrue(path.size() <= expectedSize);
+        assertValidPath(path, target, start);
+    }
+
     @Test
     public void testStairs() {
         assertStairs(0, 0);
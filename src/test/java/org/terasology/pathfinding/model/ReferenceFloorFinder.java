@@ -0,0 +1,209 @@
+/*
+ * Copyright 2013 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.pathfinding.model;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.terasology.math.Vector3i;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * FloorFinder as it was before its bookkeeping moved to int arrays, using a Sweep object per run and a map of counts.
+ * Kept to check that both find the same regions and floors, see FloorFinderTest.
+ *
+ * @author synopia
+ */
+public class ReferenceFloorFinder {
+    private List<Region> regions = Lists.newArrayList();
+    private Map<Region, Integer> count = Maps.newHashMap();
+    private List<Sweep> sweeps = Lists.newArrayList();
+    private Region[] regionMap = new Region[0];
+    private Sweep[] sweepMap = new Sweep[0];
+    private BitSet pending = new BitSet();
+    private HeightMap map;
+
+
+    public ReferenceFloorFinder() {
+    }
+
+    public Region region(WalkableBlock block) {
+        if (block == null || !map.contains(block)) {
+            return null;
+        }
+        return regionMap[block.id];
+    }
+
+    public List<Region> regions() {
+        return regions;
+    }
+
+    public void findFloors(HeightMap map) {
+        findRegions(map);
+
+        map.floors.clear();
+        for (Region region : regions) {
+            if (region.floor != null) {
+                continue;
+            }
+            Floor floor = new Floor(map, map.floors.size());
+            map.floors.add(floor);
+
+            // regions to visit, always continue with the lowest id. region ids are indices into regions
+            pending.clear();
+            pending.set(region.id);
+
+            for (int id = pending.nextSetBit(0); id >= 0; id = pending.nextSetBit(0)) {
+                pending.clear(id);
+                Region current = regions.get(id);
+                if (current.floor != null) {
+                    continue;
+                }
+                if (!floor.overlap(current)) {
+                    floor.merge(current);
+
+                    Set<Region> neighborRegions = current.getNeighborRegions();
+                    for (Region neighborRegion : neighborRegions) {
+                        if (neighborRegion.floor == null) {
+                            pending.set(neighborRegion.id);
+                        }
+                    }
+                }
+            }
+        }
+
+        for (WalkableBlock block : map.walkableBlocks) {
+            Region region = regionMap[block.id];
+            if (region != null) {
+                block.floor = region.floor;
+            }
+        }
+    }
+
+    void findRegions(HeightMap heightMap) {
+        map = heightMap;
+        Vector3i worldPos = map.worldPos;
+        regions.clear();
+        int blockCount = map.walkableBlocks.size();
+        if (regionMap.length < blockCount) {
+            regionMap = new Region[blockCount];
+            sweepMap = new Sweep[blockCount];
+        } else {
+            Arrays.fill(regionMap, 0, blockCount, null);
+        }
+
+        for (int z = 0; z < HeightMap.SIZE_Z; z++) {
+            count.clear();
+            sweeps.clear();
+            // find sweeps
+            for (int x = 0; x < HeightMap.SIZE_X; x++) {
+                int offset = x + z * HeightMap.SIZE_Z;
+                HeightMapCell cell = map.cells[offset];
+
+                findSweeps(cell);
+            }
+            // map sweeps to regions
+            for (Sweep sweep : sweeps) {
+                if (sweep.neighbor != null && sweep.neighborCount == count.get(sweep.neighbor)) {
+                    sweep.region = sweep.neighbor;
+                } else {
+                    sweep.region = new Region(regions.size());
+                    regions.add(sweep.region);
+                }
+            }
+            for (int x = 0; x < HeightMap.SIZE_X; x++) {
+                int offset = x + z * HeightMap.SIZE_Z;
+                HeightMapCell cell = map.cells[offset];
+
+                for (WalkableBlock block : cell.blocks) {
+                    Sweep sweep = sweepMap[block.id];
+                    sweepMap[block.id] = null;
+                    Region region = sweep.region;
+                    regionMap[block.id] = region;
+                    region.setPassable(block.x() - worldPos.x, block.z() - worldPos.z);
+                }
+            }
+        }
+        findRegionNeighbors();
+    }
+
+    private void findSweeps(HeightMapCell cell) {
+        for (WalkableBlock block : cell.blocks) {
+            Sweep sweep;
+            WalkableBlock leftNeighbor = block.neighbors[HeightMap.DIR_LEFT];
+            if (leftNeighbor != null && map.contains(leftNeighbor)) {
+                sweep = sweepMap[leftNeighbor.id];
+            } else {
+                sweep = new Sweep();
+                sweeps.add(sweep);
+            }
+            WalkableBlock upNeighbor = block.neighbors[HeightMap.DIR_UP];
+            if (upNeighbor != null) {
+                Region neighborRegion = region(upNeighbor);
+                if (neighborRegion != null) {
+                    if (sweep.neighborCount == 0) {
+                        sweep.neighbor = neighborRegion;
+                    }
+                    if (sweep.neighbor == neighborRegion) {
+                        sweep.neighborCount++;
+                        int c = count.containsKey(neighborRegion) ? count.get(neighborRegion) : 0;
+                        c++;
+                        count.put(neighborRegion, c);
+                    } else {
+                        sweep.neighbor = null;
+                    }
+                }
+            }
+            sweepMap[block.id] = sweep;
+        }
+    }
+
+    private void findRegionNeighbors() {
+        for (int z = 0; z < HeightMap.SIZE_Z; z++) {
+            for (int x = 0; x < HeightMap.SIZE_X; x++) {
+                int offset = x + z * HeightMap.SIZE_Z;
+                HeightMapCell cell = map.cells[offset];
+                findRegionNeighbors(cell);
+            }
+        }
+    }
+
+    private void findRegionNeighbors(HeightMapCell cell) {
+        for (WalkableBlock block : cell.blocks) {
+            Region region = regionMap[block.id];
+            if (region == null) {
+                continue;
+            }
+
+            for (WalkableBlock neighbor : block.neighbors) {
+                Region neighborRegion = region(neighbor);
+                if ((neighbor == null) || (neighborRegion != null && neighborRegion.id != region.id)) {
+                    region.addNeighborBlock(block, neighbor, neighborRegion);
+                }
+            }
+        }
+    }
+
+    private static final class Sweep {
+        private Region region;
+        private Region neighbor;
+        private int neighborCount;
+    }
+}
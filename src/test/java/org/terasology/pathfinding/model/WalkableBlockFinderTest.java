@@ -17,6 +17,9 @@ package org.terasology.pathfinding.model;
 
 import org.junit.Assert;
 import org.junit.Test;
+import org.terasology.math.Vector3i;
+
+import java.util.List;
 
 /**
  * @author synopia
@@ -161,6 +164,80 @@ public class WalkableBlockFinderTest {
         );
     }
 
+    @Test
+    public void testSnapshot() {
+        TestHelper helper = new TestHelper();
+        helper.init();
+        helper.setGround(
+                "XXX|   |XXX",
+                "XXX| X |X X",
+                "XXX|   |XXX"
+        );
+        ChunkSnapshot snapshot = new ChunkSnapshot(helper.world, helper.map.worldPos);
+        for (int y = 0; y < ChunkSnapshot.SLICES; y++) {
+            for (int z = 0; z < HeightMap.SIZE_Z; z++) {
+                for (int x = 0; x < HeightMap.SIZE_X; x++) {
+                    Assert.assertEquals(helper.world.getBlock(x, y, z).isPenetrable(), snapshot.isPenetrable(x, y, z));
+                }
+            }
+        }
+        Assert.assertFalse(snapshot.isPenetrable(1, 0, 1));
+        Assert.assertTrue(snapshot.isPenetrable(1, 1, 0));
+        Assert.assertTrue(snapshot.contains(15, ChunkSnapshot.SLICES - 1, 15));
+        Assert.assertFalse(snapshot.contains(16, 0, 0));
+    }
+
+    @Test
+    public void testScanColumns() {
+        TestHelper helper = new TestHelper();
+        helper.init(new WalkableScanBenchmark.CaveGenerator());
+        helper.setAir(3, HeightMap.SIZE_Y - 1, 3);
+        helper.setGround(4, HeightMap.SIZE_Y - 1, 4);
+        ChunkSnapshot snapshot = new ChunkSnapshot(helper.world, helper.map.worldPos);
+        WalkableBlockFinder finder = new WalkableBlockFinder(helper.world);
+        HeightMap slices = new HeightMap(helper.world, new Vector3i(0, 0, 0));
+        HeightMap columns = new HeightMap(helper.world, new Vector3i(0, 0, 0));
+        finder.scanSlices(slices, snapshot);
+        finder.scanColumns(columns, snapshot);
+        for (int i = 0; i < slices.cells.length; i++) {
+            List<WalkableBlock> expected = slices.cells[i].blocks;
+            List<WalkableBlock> actual = columns.cells[i].blocks;
+            Assert.assertEquals(expected.size(), actual.size());
+            for (int j = 0; j < expected.size(); j++) {
+                Assert.assertEquals(expected.get(j).getBlockPosition(), actual.get(j).getBlockPosition());
+            }
+        }
+    }
+
+    @Test
+    public void testConnectSlices() {
+        TestHelper helper = new TestHelper();
+        helper.init(new WalkableScanBenchmark.CaveGenerator());
+        ChunkSnapshot snapshot = new ChunkSnapshot(helper.world, helper.map.worldPos);
+        WalkableBlockFinder finder = new WalkableBlockFinder(helper.world);
+        HeightMap blocks = new HeightMap(helper.world, new Vector3i(0, 0, 0));
+        HeightMap slices = new HeightMap(helper.world, new Vector3i(0, 0, 0));
+        finder.scanColumns(blocks, snapshot);
+        finder.scanColumns(slices, snapshot);
+        finder.findNeighbors(blocks, snapshot);
+        finder.connectSlices(slices, snapshot);
+        Assert.assertEquals(blocks.borderBlocks.size(), slices.borderBlocks.size());
+        for (int i = 0; i < blocks.cells.length; i++) {
+            for (int j = 0; j < blocks.cells[i].blocks.size(); j++) {
+                WalkableBlock expected = blocks.cells[i].blocks.get(j);
+                WalkableBlock actual = slices.cells[i].blocks.get(j);
+                for (int direction = 0; direction < HeightMap.DIRECTIONS.length; direction++) {
+                    WalkableBlock expectedNeighbor = expected.neighbors[direction];
+                    WalkableBlock actualNeighbor = actual.neighbors[direction];
+                    Assert.assertEquals(expectedNeighbor == null, actualNeighbor == null);
+                    if (expectedNeighbor != null) {
+                        Assert.assertEquals(expectedNeighbor.getBlockPosition(), actualNeighbor.getBlockPosition());
+                    }
+                }
+            }
+        }
+    }
+
     private void assertNeighbors3x3(String... data) {
         final TestHelper helper = new TestHelper();
         helper.init();
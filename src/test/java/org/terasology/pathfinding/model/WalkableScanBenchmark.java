@@ -0,0 +1,216 @@
+/*
+ * Copyright 2013 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.pathfinding.model;
+
+import com.google.common.collect.Lists;
+import org.terasology.engine.CoreRegistry;
+import org.terasology.math.Vector3i;
+import org.terasology.pathfinding.PathfinderTestGenerator;
+import org.terasology.world.WorldBiomeProvider;
+import org.terasology.world.block.Block;
+import org.terasology.world.block.BlockManager;
+import org.terasology.world.chunks.Chunk;
+import org.terasology.world.chunks.ChunkConstants;
+import org.terasology.world.generator.FirstPassGenerator;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares the slice scan and the column scan of WalkableBlockFinder on 4x4 chunks of PathfinderTestGenerator
+ * terrain and of tall, cave heavy terrain, as well as connecting the blocks one by one and using bit planes.
+ * Snapshots are taken once, so only the scans are measured. Run as a plain java application, the walkable blocks
+ * or neighbors found and the average time per chunk of each variant are printed.
+ *
+ * @author synopia
+ */
+public class WalkableScanBenchmark {
+    private static final int CHUNKS = 4;
+    private static final int ROUNDS = 20;
+    private static final int WARMUP_ROUNDS = 5;
+
+    private final List<ChunkSnapshot> snapshots = Lists.newArrayList();
+    private final List<Vector3i> chunkPositions = Lists.newArrayList();
+    private final WalkableBlockFinder finder;
+    private int found;
+
+    public WalkableScanBenchmark(boolean caves) {
+        TestHelper helper = new TestHelper();
+        helper.init(caves ? new CaveGenerator() : new PathfinderTestGenerator(true));
+        finder = new WalkableBlockFinder(helper.world);
+        for (int x = 0; x < CHUNKS; x++) {
+            for (int z = 0; z < CHUNKS; z++) {
+                Vector3i chunkPos = new Vector3i(x, 0, z);
+                HeightMap map = new HeightMap(helper.world, chunkPos);
+                chunkPositions.add(chunkPos);
+                snapshots.add(new ChunkSnapshot(helper.world, map.worldPos));
+            }
+        }
+    }
+
+    public long runSlices() {
+        found = 0;
+        long time = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int i = 0; i < snapshots.size(); i++) {
+                HeightMap map = new HeightMap(null, chunkPositions.get(i));
+                finder.scanSlices(map, snapshots.get(i));
+                count(map);
+            }
+        }
+        return System.nanoTime() - time;
+    }
+
+    public long runColumns() {
+        found = 0;
+        long time = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int i = 0; i < snapshots.size(); i++) {
+                HeightMap map = new HeightMap(null, chunkPositions.get(i));
+                finder.scanColumns(map, snapshots.get(i));
+                count(map);
+            }
+        }
+        return System.nanoTime() - time;
+    }
+
+    public long runConnectBlocks() {
+        List<HeightMap> maps = scanAll();
+        found = 0;
+        long time = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int i = 0; i < maps.size(); i++) {
+                finder.findNeighbors(maps.get(i), snapshots.get(i));
+            }
+        }
+        time = System.nanoTime() - time;
+        countNeighbors(maps);
+        return time;
+    }
+
+    public long runConnectSlices() {
+        List<HeightMap> maps = scanAll();
+        found = 0;
+        long time = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int i = 0; i < maps.size(); i++) {
+                finder.connectSlices(maps.get(i), snapshots.get(i));
+            }
+        }
+        time = System.nanoTime() - time;
+        countNeighbors(maps);
+        return time;
+    }
+
+    private List<HeightMap> scanAll() {
+        List<HeightMap> maps = Lists.newArrayList();
+        for (int i = 0; i < snapshots.size(); i++) {
+            HeightMap map = new HeightMap(null, chunkPositions.get(i));
+            finder.scanColumns(map, snapshots.get(i));
+            maps.add(map);
+        }
+        return maps;
+    }
+
+    private void countNeighbors(List<HeightMap> maps) {
+        for (HeightMap map : maps) {
+            for (HeightMapCell cell : map.cells) {
+                for (WalkableBlock block : cell.blocks) {
+                    for (WalkableBlock neighbor : block.neighbors) {
+                        if (neighbor != null) {
+                            found += ROUNDS;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void count(HeightMap map) {
+        for (HeightMapCell cell : map.cells) {
+            found += cell.blocks.size();
+        }
+    }
+
+    private void print(String name, String counted, long time) {
+        int chunks = ROUNDS * snapshots.size();
+        System.out.println(name + ": " + found / chunks + " " + counted + "/chunk, " + time / chunks / 1000
+                + " us/chunk");
+    }
+
+    private void run(String name) {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            runSlices();
+            runColumns();
+            runConnectBlocks();
+            runConnectSlices();
+        }
+        print(name + " slices", "walkable blocks", runSlices());
+        print(name + " columns", "walkable blocks", runColumns());
+        print(name + " connect blocks", "neighbors", runConnectBlocks());
+        print(name + " connect slices", "neighbors", runConnectSlices());
+    }
+
+    public static void main(String[] args) {
+        new WalkableScanBenchmark(false).run("test generator");
+        new WalkableScanBenchmark(true).run("caves");
+    }
+
+    /**
+     * Fills whole chunks with random layers of ground and air, most of them thin, like a tall world full of caves.
+     */
+    public static class CaveGenerator implements FirstPassGenerator {
+        private Block air = BlockManager.getAir();
+        private Block ground = CoreRegistry.get(BlockManager.class).getBlock("engine:Dirt");
+
+        @Override
+        public void generateChunk(Chunk chunk) {
+            Vector3i pos = chunk.getPos();
+            Random random = new Random(pos.x * 31 + pos.z);
+            for (int x = 0; x < ChunkConstants.SIZE_X; x++) {
+                for (int z = 0; z < ChunkConstants.SIZE_Z; z++) {
+                    boolean solid = random.nextBoolean();
+                    int y = ChunkConstants.SIZE_Y - 1;
+                    while (y >= 0) {
+                        int height = 1 + random.nextInt(solid ? 4 : 6);
+                        for (int i = 0; i < height && y >= 0; i++, y--) {
+                            chunk.setBlock(x, y, z, solid ? ground : air);
+                        }
+                        solid = !solid;
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void setWorldSeed(String seed) {
+        }
+
+        @Override
+        public void setWorldBiomeProvider(WorldBiomeProvider biomeProvider) {
+        }
+
+        @Override
+        public Map<String, String> getInitParameters() {
+            return null;
+        }
+
+        @Override
+        public void setInitParameters(Map<String, String> initParameters) {
+        }
+    }
+}